@@ -0,0 +1,63 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 定常状態のDetector.detect(Mat)がバッファを確保し直していないことを、スレッドの確保数で確かめる
+ * Interpreter.run()は入出力を包む小さな配列とMapを毎回作るので、確保数は0にならない.
+ * 出力テンソル1枚分(数百KB)よりずっと小さいことと、オブジェクト数が少ないことを確かめる
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectorAllocationTest {
+    private static final int WARM_UP_CALLS = 3;
+    private static final int MEASURED_CALLS = 20;
+    // 1回のdetect()で許す確保の上限(Interpreter.run()の中の小さなオブジェクトの分)
+    private static final int MAX_OBJECTS_PER_CALL = 64;
+    private static final int MAX_BYTES_PER_CALL = 16 * 1024;
+
+    private static Detector detector;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        assertTrue(OpenCVLoader.initDebug());
+        detector = new Detector(InstrumentationRegistry.getTargetContext(), "white2.tflite", "labels.txt");
+        detector.setup();
+    }
+
+    @Test
+    public void steadyStateDetectDoesNotAllocateBuffers() {
+        // カメラ画像と同じ大きさ・形式の画像(リサイズと色変換も通る)
+        Mat image = new Mat(960, 1280, CvType.CV_8UC4, new Scalar(128, 128, 128, 255));
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            assertNotNull(detector.detect(image));
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            detector.detect(image);
+        }
+        int objects = Debug.getThreadAllocCount();
+        int bytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        assertTrue("allocated " + objects + " objects in " + MEASURED_CALLS + " calls",
+                objects <= MAX_OBJECTS_PER_CALL * MEASURED_CALLS);
+        assertTrue("allocated " + bytes + " bytes in " + MEASURED_CALLS + " calls",
+                bytes <= MAX_BYTES_PER_CALL * MEASURED_CALLS);
+    }
+}
@@ -0,0 +1,92 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * モデルの読み込みの起動時間とメモリを、以前の読み込み方(アセットをbyte[]に読んでから直接バッファにコピー)と比べる
+ * 結果はログ(タグ ModelCacheBenchmark)に出力する
+ */
+@RunWith(AndroidJUnit4.class)
+public class ModelCacheBenchmarkTest {
+    private static final String TAG = "ModelCacheBenchmark";
+    private static final String[] MODELS = {"white2.tflite", "model_v4.tflite"};
+    private static final int REPEAT = 5;
+
+    @Test
+    public void mappedLoadIsFasterAndUsesNoHeap() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        for (String modelPath : MODELS) {
+            long copyNanos = Long.MAX_VALUE;
+            long copyHeap = 0;
+            long mapNanos = Long.MAX_VALUE;
+            long mapHeap = 0;
+            long cachedNanos = Long.MAX_VALUE;
+            for (int i = 0; i < REPEAT; i++) {
+                long heap = usedHeap();
+                long start = System.nanoTime();
+                ByteBuffer copied = loadByCopy(context, modelPath);
+                copyNanos = Math.min(copyNanos, System.nanoTime() - start);
+                copyHeap = Math.max(copyHeap, usedHeap() - heap);
+                assertTrue(copied.capacity() > 0);
+
+                ModelCache.clear();
+                heap = usedHeap();
+                start = System.nanoTime();
+                MappedByteBuffer mapped = ModelCache.load(context, modelPath);
+                mapNanos = Math.min(mapNanos, System.nanoTime() - start);
+                mapHeap = Math.max(mapHeap, usedHeap() - heap);
+
+                start = System.nanoTime();
+                assertSame(mapped, ModelCache.load(context, modelPath));
+                cachedNanos = Math.min(cachedNanos, System.nanoTime() - start);
+            }
+            Log.i(TAG, modelPath + ": copy=" + copyNanos / 1000 + "us (heap +" + copyHeap / 1024 + "KB)"
+                    + ", map=" + mapNanos / 1000 + "us (heap +" + mapHeap / 1024 + "KB)"
+                    + ", cached=" + cachedNanos / 1000 + "us");
+
+            assertTrue(mapNanos < copyNanos);
+            assertTrue(mapHeap < copyHeap);
+        }
+        ModelCache.clear();
+    }
+
+    // 以前のDetector.setup()の読み込み方
+    private static ByteBuffer loadByCopy(Context context, String modelPath) throws IOException {
+        try (InputStream inputStream = context.getAssets().open(modelPath)) {
+            byte[] bytes = new byte[inputStream.available()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = inputStream.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+            buffer.put(bytes);
+            return buffer;
+        }
+    }
+
+    // Javaヒープとネイティブヒープ(直接バッファ)の使用量の合計
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+}
@@ -0,0 +1,35 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+public final class AreaItem {
+    private final String name;        // アイテム名
+    private final int num;            // アイテムの個数
+    private final float confidence;   // 認識結果の確信度(何も検出できなかった場合は0)
+
+    // コンストラクタ
+    public AreaItem(String name, int num) {
+        this(name, num, 0);
+    }
+
+    public AreaItem(String name, int num, float confidence) {
+        this.name = name;
+        this.num = num;
+        this.confidence = confidence;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNum() {
+        return num;
+    }
+
+    public float getConfidence() {
+        return confidence;
+    }
+
+    @Override
+    public String toString() {
+        return "AreaItem(name=" + name + ", num=" + num + ", confidence=" + confidence + ")";
+    }
+}
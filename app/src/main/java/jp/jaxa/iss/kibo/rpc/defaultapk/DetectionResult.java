@@ -0,0 +1,180 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 検出結果をプリミティブ配列で保持するクラス
+ * i番目の検出結果の座標・確信度・クラスIDは各配列のi番目に入っている
+ * クラスごとの個数(ヒストグラム)は追加時に数える
+ */
+public final class DetectionResult {
+    private final List<String> labels;  // クラスラベルのリスト
+    private float[] x1;                 // 左上隅のx座標
+    private float[] y1;                 // 左上隅のy座標
+    private float[] x2;                 // 右下隅のx座標
+    private float[] y2;                 // 右下隅のy座標
+    private float[] scores;             // 確信度
+    private int[] classIds;             // クラスID
+    private final int[] classCounts;    // クラスごとの個数
+    private int size;                   // 検出結果の数
+
+    // コンストラクタ
+    public DetectionResult(List<String> labels, int numClasses, int capacity) {
+        this.labels = labels;
+        this.x1 = new float[capacity];
+        this.y1 = new float[capacity];
+        this.x2 = new float[capacity];
+        this.y2 = new float[capacity];
+        this.scores = new float[capacity];
+        this.classIds = new int[capacity];
+        this.classCounts = new int[numClasses];
+    }
+
+    // 検出結果を空にする
+    void clear() {
+        size = 0;
+        Arrays.fill(classCounts, 0);
+    }
+
+    // 検出結果を追加する
+    void add(float x1, float y1, float x2, float y2, float score, int classId) {
+        if (size == scores.length) {
+            grow();
+        }
+        this.x1[size] = x1;
+        this.y1[size] = y1;
+        this.x2[size] = x2;
+        this.y2[size] = y2;
+        this.scores[size] = score;
+        this.classIds[size] = classId;
+        ++classCounts[classId];
+        ++size;
+    }
+
+    // src番目の検出結果をdst番目に移す (NMSで残った結果を詰めるときに使う)
+    void move(int src, int dst) {
+        x1[dst] = x1[src];
+        y1[dst] = y1[src];
+        x2[dst] = x2[src];
+        y2[dst] = y2[src];
+        scores[dst] = scores[src];
+        classIds[dst] = classIds[src];
+    }
+
+    // 先頭からnewSize個だけを残し、クラスごとの個数を数え直す
+    void truncate(int newSize) {
+        size = newSize;
+        Arrays.fill(classCounts, 0);
+        for (int i = 0; i < size; i++) {
+            ++classCounts[classIds[i]];
+        }
+    }
+
+    void setScore(int index, float score) {
+        scores[index] = score;
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, scores.length * 2);
+        x1 = Arrays.copyOf(x1, capacity);
+        y1 = Arrays.copyOf(y1, capacity);
+        x2 = Arrays.copyOf(x2, capacity);
+        y2 = Arrays.copyOf(y2, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        classIds = Arrays.copyOf(classIds, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public float getX1(int index) {
+        return x1[index];
+    }
+
+    public float getY1(int index) {
+        return y1[index];
+    }
+
+    public float getX2(int index) {
+        return x2[index];
+    }
+
+    public float getY2(int index) {
+        return y2[index];
+    }
+
+    public float getScore(int index) {
+        return scores[index];
+    }
+
+    public int getClassId(int index) {
+        return classIds[index];
+    }
+
+    public String getClassName(int index) {
+        return labels.get(classIds[index]);
+    }
+
+    /**
+     * クラスIDごとの検出数を返します
+     */
+    public int getClassCount(int classId) {
+        return classCounts[classId];
+    }
+
+    public int getNumClasses() {
+        return classCounts.length;
+    }
+
+    public String getLabel(int classId) {
+        return labels.get(classId);
+    }
+
+    /**
+     * 最も確信度の高い検出結果の番号を返します
+     * @return 検出結果の番号. 空の場合は-1
+     */
+    public int getMaxScoreIndex() {
+        int maxIndex = -1;
+        float maxScore = 0;
+        for (int i = 0; i < size; i++) {
+            if (maxScore < scores[i]) {
+                maxScore = scores[i];
+                maxIndex = i;
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * 検出結果のコピーを返します
+     * Detectorが返す結果は次の検出で上書きされるので、保持したい場合はコピーしてください
+     */
+    public DetectionResult copy() {
+        DetectionResult result = new DetectionResult(labels, classCounts.length, Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+            result.add(x1[i], y1[i], x2[i], y2[i], scores[i], classIds[i]);
+        }
+        return result;
+    }
+
+    /**
+     * BoundingBoxのリストに変換します(互換用)
+     */
+    public List<BoundingBox> toBoundingBoxes() {
+        List<BoundingBox> boundingBoxes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            float w = x2[i] - x1[i];
+            float h = y2[i] - y1[i];
+            boundingBoxes.add(new BoundingBox(x1[i], y1[i], x2[i], y2[i], x1[i] + w / 2.0F, y1[i] + h / 2.0F, w, h, scores[i], classIds[i], labels.get(classIds[i])));
+        }
+        return boundingBoxes;
+    }
+}
@@ -8,26 +8,30 @@ import android.graphics.Color;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Color;
+import android.util.Log;
 
-import org.tensorflow.lite.DataType;
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.support.common.FileUtil;
-import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.ops.CastOp;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
-import org.tensorflow.lite.support.image.ImageProcessor;
-import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 public final class Detector {
 
@@ -35,24 +39,57 @@ public final class Detector {
         System.loadLibrary("tensorflowlite_jni");
     }
 
+    private static final String TAG = "Detector";
+
     private Interpreter interpreter;  // TensorFlow Liteのインタプリタ
     private int tensorWidth;          // 入力テンソルの幅
     private int tensorHeight;         // 入力テンソルの高さ
     private int numChannel;           // 出力テンソルのチャネル数
     private int numElements;          // 出力テンソルの要素数
     private List<String> labels;      // クラスラベルのリスト
-    private final ImageProcessor imageProcessor; // 画像前処理のためのImageProcessor
     private final Context context;    // コンテキスト
     private final String modelPath;   // モデルファイルのパス
     private final String labelPath;   // ラベルファイルのパス
 
+    // detect()で毎回使い回すバッファ(setup()で一度だけ確保する)
+    // そのため、同じDetectorのdetect()を複数スレッドから同時に呼んではいけない
+    private ByteBuffer inputBuffer;   // 入力テンソル
+    private ByteBuffer outputBuffer;  // 出力テンソル
+    private FloatBuffer outputFloats; // outputBufferのfloatビュー
+    private float[] outputArray;      // 出力テンソルをコピーする配列
+    private Mat inputMat;             // inputBufferをそのまま参照するMat(CV_32FC3)
+    private Size inputSize;           // 入力テンソルの画像サイズ
+    private Mat resizedMat;           // リサイズ先のMat
+    private Mat rgbMat;               // RGBに変換したMat
+    private Mat bitmapMat;            // Bitmapから変換したMat(RGBA)
+    private float[] maxScores;        // アンカーごとの最大クラススコア
+    private int[] maxClassIds;        // アンカーごとの最大スコアのクラスID
+    private DetectionResult result;   // detect()が返す検出結果(毎回上書きする)
+
+    // バッチ推論用のバッファ(今までで最大のバッチサイズに合わせて確保し、小さいバッチでは先頭だけを使う)
+    private int currentBatchSize = 1; // インタプリタの入力に設定しているバッチサイズ
+    private boolean batchDisabled;    // バッチ推論に失敗したらtrueにして、以後は1枚ずつ検出する
+    private ByteBuffer batchInputStorage;
+    private ByteBuffer batchOutputStorage;
+    private ByteBuffer batchInputBuffer;  // batchInputStorageの先頭の、今のバッチサイズ分のビュー
+    private ByteBuffer batchOutputBuffer; // batchOutputStorageの先頭の、今のバッチサイズ分のビュー
+    private FloatBuffer batchOutputFloats;
+    private Mat[] batchInputMats;     // batchInputStorageの各画像の部分を参照するMat
+
+    // デコードを複数スレッドに分けるためのExecutorとタスク
+    private ExecutorService decodeExecutor;
+    private List<Callable<Void>> decodeTasks;
+
     // 正規化のための定数
     private static final float INPUT_MEAN = 0.0F;
     private static final float INPUT_STANDARD_DEVIATION = 255.0F;
-    private static final DataType INPUT_IMAGE_TYPE = DataType.FLOAT32;
-    private static final DataType OUTPUT_IMAGE_TYPE = DataType.FLOAT32;
-    private static final float CONFIDENCE_THRESHOLD = 0.40F;
-    private static final float IOU_THRESHOLD = 0.4F;
+    // 閾値の初期値(setConfidenceThreshold()とgetNms()で検出器ごとに変えられる)
+    private static final float DEFAULT_CONFIDENCE_THRESHOLD = 0.40F;
+    private static final float DEFAULT_IOU_THRESHOLD = 0.4F;
+    private static final int DEFAULT_NMS_TOP_K = 300;
+
+    private float confidenceThreshold = DEFAULT_CONFIDENCE_THRESHOLD;
+    private final NonMaxSuppression nms;
 
     // コンストラクタ
     public Detector(Context context, String modelPath, String labelPath) {
@@ -60,21 +97,48 @@ public final class Detector {
         this.modelPath = modelPath;
         this.labelPath = labelPath;
         this.labels = new ArrayList<>();
-        this.imageProcessor = new ImageProcessor.Builder()
-                .add(new NormalizeOp(INPUT_MEAN, INPUT_STANDARD_DEVIATION))
-                .add(new CastOp(INPUT_IMAGE_TYPE))
-                .build();
+        this.nms = new NonMaxSuppression(DEFAULT_IOU_THRESHOLD);
+        this.nms.setTopK(DEFAULT_NMS_TOP_K);
+        this.nms.setScoreThreshold(DEFAULT_CONFIDENCE_THRESHOLD);
+    }
+
+    /**
+     * この確信度を超えたものだけを検出結果にします
+     */
+    public void setConfidenceThreshold(float confidenceThreshold) {
+        this.confidenceThreshold = confidenceThreshold;
+        this.nms.setScoreThreshold(confidenceThreshold);
+    }
+
+    /**
+     * 入力テンソルの画像サイズを返します. この大きさの画像を渡すとリサイズが省略されます
+     */
+    public Size getInputSize() {
+        return inputSize;
+    }
+
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    public int getNumClasses() {
+        return numChannel - 4;
+    }
+
+    /**
+     * この検出器が使うNMSを返します. IoUの閾値やモードはこれを通して設定してください
+     */
+    public NonMaxSuppression getNms() {
+        return nms;
     }
 
     // モデルとラベルの読み込みおよびセットアップ
     public void setup() throws IOException {
-        // モデルファイルの読み込み
-        InputStream inputStream = context.getAssets().open(modelPath);
-        ByteBuffer model = ByteBuffer.allocateDirect(inputStream.available());
-        byte[] buffer = new byte[inputStream.available()];
-        inputStream.read(buffer);
-        model.put(buffer);
-        model.rewind();
+        long startTime = System.nanoTime();
+        // モデルファイルの読み込み(メモリマップ. 同じモデルは他のDetectorと共有する)
+        boolean cached = ModelCache.contains(modelPath);
+        MappedByteBuffer model = ModelCache.load(context, modelPath);
+        long loadedTime = System.nanoTime();
 
         Interpreter.Options options = new Interpreter.Options();
         options.setNumThreads(4); // スレッド数の設定
@@ -89,6 +153,20 @@ public final class Detector {
         numChannel = outputShape[1];
         numElements = outputShape[2];
 
+        // 推論用のバッファを確保
+        inputBuffer = ByteBuffer.allocateDirect(interpreter.getInputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+        outputBuffer = ByteBuffer.allocateDirect(interpreter.getOutputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+        outputFloats = outputBuffer.asFloatBuffer();
+        outputArray = new float[numChannel * numElements];
+        inputMat = new Mat(tensorHeight, tensorWidth, CvType.CV_32FC3, inputBuffer);
+        inputSize = new Size(tensorWidth, tensorHeight);
+        resizedMat = new Mat();
+        rgbMat = new Mat();
+        bitmapMat = new Mat();
+        maxScores = new float[numElements];
+        maxClassIds = new int[numElements];
+        result = new DetectionResult(labels, numChannel - 4, 64);
+
         // ラベルファイルの読み込み
         try (InputStream labelInputStream = context.getAssets().open(labelPath);
              BufferedReader reader = new BufferedReader(new InputStreamReader(labelInputStream))) {
@@ -97,46 +175,237 @@ public final class Detector {
                 labels.add(line);
             }
         }
+
+        long endTime = System.nanoTime();
+        Log.i(TAG, "setup " + modelPath + (cached ? " (cached)" : "")
+                + ": load=" + (loadedTime - startTime) / 1000000 + "ms"
+                + ", total=" + (endTime - startTime) / 1000000 + "ms");
+    }
+
+    /**
+     * ダミー入力で一度推論を実行し、初回推論時のメモリ確保やカーネル準備を済ませます
+     * setup()の後、ミッション中の最初のdetect()より前に呼んでください
+     */
+    public void warmUp() {
+        if (interpreter == null) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        ByteBuffer input = ByteBuffer.allocateDirect(interpreter.getInputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+        ByteBuffer output = ByteBuffer.allocateDirect(interpreter.getOutputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+        interpreter.run(input, output);
+        Log.i(TAG, "warmUp " + modelPath + ": " + (System.nanoTime() - startTime) / 1000000 + "ms");
+    }
+
+    /**
+     * アンカー数が多いときに、デコードを複数スレッドに分けて実行するようにします
+     * setup()の後に呼んでください
+     * @param executor デコードを実行するExecutor. nullなら呼び出したスレッドだけで実行する
+     * @param numChunks アンカーを分割する数
+     */
+    public void setDecodeExecutor(ExecutorService executor, int numChunks) {
+        decodeExecutor = executor;
+        decodeTasks = new ArrayList<>(numChunks);
+        int chunkSize = (numElements + numChunks - 1) / numChunks;
+        for (int start = 0; start < numElements; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, numElements);
+            decodeTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    findMaxScores(from, to);
+                    return null;
+                }
+            });
+        }
     }
 
-    // 画像の検出処理
+    /**
+     * Bitmapに対する検出処理(互換用)
+     * Matに変換してからdetect(Mat)を呼びます
+     * @return 検出したバウンディングボックスのリスト. 何も検出できなかった場合はnull
+     */
     public List<BoundingBox> detect(Bitmap image) {
+        if (interpreter == null) {
+            return null;
+        }
+        Utils.bitmapToMat(image, bitmapMat);
+        DetectionResult detectionResult = detect(bitmapMat);
+        if (detectionResult == null || detectionResult.isEmpty()) {
+            return null;
+        }
+        return detectionResult.toBoundingBoxes();
+    }
+
+    /**
+     * Matに対する検出処理
+     * リサイズ、RGBへの変換、正規化をOpenCVで行い、入力テンソルのバッファへ直接書き込みます
+     * @param image 検出する画像. 1チャネル(グレースケール)、3チャネル(RGB)、4チャネル(RGBA)に対応
+     * @return 検出結果. Detectorが持つインスタンスを使い回すので、次のdetect()で上書きされる
+     */
+    public DetectionResult detect(Mat image) {
         if (interpreter != null && tensorWidth != 0 && tensorHeight != 0 && numChannel != 0 && numElements != 0) {
-            // 入力画像のリサイズ
-            Bitmap resizedBitmap = Bitmap.createScaledBitmap(image, tensorWidth, tensorHeight, false);
-            TensorImage tensorImage = new TensorImage(DataType.FLOAT32);
-            tensorImage.load(resizedBitmap);
-            // 画像の前処理
-            TensorImage processedImage = imageProcessor.process(tensorImage);
-            ByteBuffer imageBuffer = processedImage.getBuffer();
-            // 出力テンソルの作成
-            TensorBuffer output = TensorBuffer.createFixedSize(new int[]{1, numChannel, numElements}, OUTPUT_IMAGE_TYPE);
+            if (currentBatchSize != 1 && !resizeBatch(1)) {
+                return null;
+            }
+            preprocess(image, inputMat);
+
             // 推論の実行
-            interpreter.run(imageBuffer, output.getBuffer());
+            inputBuffer.rewind();
+            outputBuffer.rewind();
+            interpreter.run(inputBuffer, outputBuffer);
 
-            float[] outputArray = output.getFloatArray();
+            outputFloats.rewind();
+            outputFloats.get(outputArray);
             // バウンディングボックスの抽出
-            return bestBox(outputArray);
+            bestBox();
+            return result;
         }
         return null;
     }
 
+    /**
+     * 複数の画像をまとめて1回の推論で検出します
+     * インタプリタの入力をバッチサイズに合わせて変更し、出力を画像ごとに分けて返します
+     * モデルがバッチサイズの変更に対応していない場合や、バッチ用のテンソルを確保できずに推論が失敗した場合は、
+     * バッチサイズを1に戻して1枚ずつ検出します
+     * @param images 検出する画像のリスト
+     * @return 画像ごとの検出結果(コピーなので、次の検出で上書きされない)
+     */
+    public List<DetectionResult> detectBatch(List<Mat> images) {
+        List<DetectionResult> results = new ArrayList<>(images.size());
+        if (interpreter == null || images.isEmpty()) {
+            return results;
+        }
+        int batchSize = images.size();
+        if (batchSize == 1 || batchDisabled || !resizeBatch(batchSize)) {
+            return detectEach(images);
+        }
+
+        for (int b = 0; b < batchSize; b++) {
+            preprocess(images.get(b), batchInputMats[b]);
+        }
+
+        // 推論の実行
+        // テンソルの確保はrun()の中で行われるので、大きいバッチの確保に失敗した場合もここで例外になる
+        batchInputBuffer.rewind();
+        batchOutputBuffer.rewind();
+        try {
+            interpreter.run(batchInputBuffer, batchOutputBuffer);
+        } catch (IllegalArgumentException | IllegalStateException | OutOfMemoryError e) {
+            Log.w(TAG, "batch inference with " + batchSize + " images failed, falling back to batch 1", e);
+            batchDisabled = true;
+            return detectEach(images);
+        }
+
+        // 出力は[batchSize, numChannel, numElements]なので、先頭から1枚分ずつ取り出してデコードする
+        batchOutputFloats.rewind();
+        for (int b = 0; b < batchSize; b++) {
+            batchOutputFloats.get(outputArray);
+            bestBox();
+            results.add(result.copy());
+        }
+        return results;
+    }
+
+    // 1枚ずつ検出する(detect()がバッチサイズを1に戻す)
+    private List<DetectionResult> detectEach(List<Mat> images) {
+        List<DetectionResult> results = new ArrayList<>(images.size());
+        for (Mat image : images) {
+            DetectionResult detectionResult = detect(image);
+            results.add(detectionResult == null ? null : detectionResult.copy());
+        }
+        return results;
+    }
+
+    // インタプリタの入力のバッチサイズを変更し、バッチ用のバッファを用意する
+    // 変更できなかった場合はfalseを返す
+    private boolean resizeBatch(int batchSize) {
+        if (batchSize == currentBatchSize) {
+            return true;
+        }
+        try {
+            interpreter.resizeInput(0, new int[]{batchSize, tensorWidth, tensorHeight, 3});
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Log.w(TAG, "resizeInput to batch " + batchSize + " failed", e);
+            return false;
+        }
+        currentBatchSize = batchSize;
+        if (batchSize == 1) {
+            return true;
+        }
+
+        int inputBytes = inputBuffer.capacity();
+        int outputBytes = outputBuffer.capacity();
+        if (batchInputMats == null || batchInputMats.length < batchSize) {
+            if (batchInputMats != null) {
+                for (Mat mat : batchInputMats) {
+                    mat.release();
+                }
+            }
+            batchInputStorage = ByteBuffer.allocateDirect(inputBytes * batchSize).order(ByteOrder.nativeOrder());
+            batchOutputStorage = ByteBuffer.allocateDirect(outputBytes * batchSize).order(ByteOrder.nativeOrder());
+            batchInputMats = new Mat[batchSize];
+            for (int b = 0; b < batchSize; b++) {
+                batchInputMats[b] = new Mat(tensorHeight, tensorWidth, CvType.CV_32FC3, head(batchInputStorage, inputBytes * b, inputBytes));
+            }
+        }
+        // インタプリタはバッファの容量がテンソルの大きさと一致することを求めるので、先頭の部分だけのビューを渡す
+        batchInputBuffer = head(batchInputStorage, 0, inputBytes * batchSize);
+        batchOutputBuffer = head(batchOutputStorage, 0, outputBytes * batchSize);
+        batchOutputFloats = batchOutputBuffer.asFloatBuffer();
+        return true;
+    }
+
+    // bufferのoffsetからlengthバイトを参照するビュー(中身はコピーしない)
+    private static ByteBuffer head(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    // 画像をリサイズ、RGBに変換、正規化してdstに書き込む
+    private void preprocess(Mat image, Mat dst) {
+        // 入力画像のリサイズ(既に入力サイズならそのまま使う)
+        Mat src = image;
+        if (image.cols() != tensorWidth || image.rows() != tensorHeight) {
+            Imgproc.resize(image, resizedMat, inputSize, 0, 0, Imgproc.INTER_NEAREST);
+            src = resizedMat;
+        }
+        // RGBへの変換
+        if (src.channels() == 1) {
+            Imgproc.cvtColor(src, rgbMat, Imgproc.COLOR_GRAY2RGB);
+            src = rgbMat;
+        } else if (src.channels() == 4) {
+            Imgproc.cvtColor(src, rgbMat, Imgproc.COLOR_RGBA2RGB);
+            src = rgbMat;
+        }
+        // 正規化してバッファに書き込む(dstは入力バッファを参照している)
+        src.convertTo(dst, CvType.CV_32F, 1.0 / INPUT_STANDARD_DEVIATION, -INPUT_MEAN / INPUT_STANDARD_DEVIATION);
+    }
+
     // バウンディングボックスの抽出
-    private List<BoundingBox> bestBox(float[] array) {
-        List<BoundingBox> boundingBoxes = new ArrayList<>();
-        for (int c = 0; c < numElements; c++) {
-            float maxConf = -1.0F;
-            int maxIdx = -1;
-            for (int j = 4; j < numChannel; j++) {
-                int arrayIdx = c + numElements * j;
-                if (array[arrayIdx] > maxConf) {
-                    maxConf = array[arrayIdx];
-                    maxIdx = j - 4;
+    // 出力は[1, numChannel, numElements]なので、チャネルごとに連続したアンカーを順に読む
+    private void bestBox() {
+        if (decodeExecutor != null && decodeTasks.size() > 1) {
+            try {
+                for (Future<Void> future : decodeExecutor.invokeAll(decodeTasks)) {
+                    future.get();
                 }
+            } catch (InterruptedException | ExecutionException | RejectedExecutionException e) {
+                Log.w(TAG, "Parallel decode failed, fall back to single thread", e);
+                findMaxScores(0, numElements);
             }
+        } else {
+            findMaxScores(0, numElements);
+        }
 
-            if (maxConf > CONFIDENCE_THRESHOLD) {
-                String clsName = labels.get(maxIdx);
+        result.clear();
+        float[] array = outputArray;
+        for (int c = 0; c < numElements; c++) {
+            float maxConf = maxScores[c];
+            if (maxConf > confidenceThreshold) {
                 float cx = array[c];
                 float cy = array[c + numElements];
                 float w = array[c + numElements * 2];
@@ -146,51 +415,33 @@ public final class Detector {
                 float x2 = cx + w / 2.0F;
                 float y2 = cy + h / 2.0F;
                 if (x1 >= 0.0F && x1 <= 1.0F && y1 >= 0.0F && y1 <= 1.0F && x2 >= 0.0F && x2 <= 1.0F && y2 >= 0.0F && y2 <= 1.0F) {
-                    boundingBoxes.add(new BoundingBox(x1, y1, x2, y2, cx, cy, w, h, maxConf, maxIdx, clsName));
+                    result.add(x1, y1, x2, y2, maxConf, maxClassIds[c]);
                 }
             }
         }
 
-        if (boundingBoxes.isEmpty()) {
-            return null;
-        } else {
-            return applyNMS(boundingBoxes);
-        }
+        nms.apply(result);
     }
 
-    // 非最大抑制 (NMS) の適用
-    private List<BoundingBox> applyNMS(List<BoundingBox> boxes) {
-        boxes.sort(new Comparator<BoundingBox>() {
-            @Override
-            public int compare(BoundingBox o1, BoundingBox o2) {
-                return Float.compare(o2.getCnf(), o1.getCnf());
-            }
-        });
-        List<BoundingBox> selectedBoxes = new ArrayList<>();
-        while (!boxes.isEmpty()) {
-            BoundingBox first = boxes.remove(0);
-            selectedBoxes.add(first);
-            Iterator<BoundingBox> iterator = boxes.iterator();
-            while (iterator.hasNext()) {
-                BoundingBox nextBox = iterator.next();
-                if (calculateIoU(first, nextBox) >= IOU_THRESHOLD) {
-                    iterator.remove();
+    // アンカー[from, to)について、最もスコアの高いクラスとそのスコアを求める
+    private void findMaxScores(int from, int to) {
+        float[] array = outputArray;
+        int offset = numElements * 4;
+        for (int c = from; c < to; c++) {
+            maxScores[c] = array[offset + c];
+            maxClassIds[c] = 0;
+        }
+        for (int j = 5; j < numChannel; j++) {
+            offset = numElements * j;
+            int cls = j - 4;
+            for (int c = from; c < to; c++) {
+                float score = array[offset + c];
+                if (score > maxScores[c]) {
+                    maxScores[c] = score;
+                    maxClassIds[c] = cls;
                 }
             }
         }
-        return selectedBoxes;
-    }
-
-    // IoU (Intersection over Union) の計算
-    private float calculateIoU(BoundingBox box1, BoundingBox box2) {
-        float x1 = Math.max(box1.getX1(), box2.getX1());
-        float y1 = Math.max(box1.getY1(), box2.getY1());
-        float x2 = Math.min(box1.getX2(), box2.getX2());
-        float y2 = Math.min(box1.getY2(), box2.getY2());
-        float intersectionArea = Math.max(0, x2 - x1) * Math.max(0, y2 - y1);
-        float box1Area = box1.getW() * box1.getH();
-        float box2Area = box2.getW() * box2.getH();
-        return intersectionArea / (box1Area + box2Area - intersectionArea);
     }
 
     public Bitmap drawBoundingBoxesOnBitmap(Bitmap bitmap, List<BoundingBox> boundingBoxes) {
@@ -224,5 +475,12 @@ public final class Detector {
         return resultBitmap;
     }
 
+    public Bitmap drawBoundingBoxesOnBitmap(Bitmap bitmap, DetectionResult detectionResult) {
+        if (bitmap == null || detectionResult == null) {
+            return null;
+        }
+        return drawBoundingBoxesOnBitmap(bitmap, detectionResult.toBoundingBoxes());
+    }
+
 
 }
@@ -0,0 +1,35 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Detectorを別スレッドで準備するクラス
+ * Detectorのstaticイニシャライザ(tensorflowlite_jniの読み込み)は、Detectorのstaticメソッドを呼んだり
+ * インスタンスを作ったりしたスレッドで実行される. このクラスはDetectorに触れずにタスクを投入するので、
+ * 読み込みは投入したタスクの中(Executorのスレッド)で行われ、呼び出し側のスレッドを止めない
+ */
+final class DetectorLoader {
+    private DetectorLoader() {}
+
+    /**
+     * 別スレッドでDetectorを生成し、setup()とwarmUp()まで済ませます
+     * @param executor 読み込みを実行するExecutor
+     * @return 準備が完了したDetectorを返すFuture
+     */
+    static Future<Detector> setupAsync(ExecutorService executor, final Context context, final String modelPath, final String labelPath) {
+        return executor.submit(new Callable<Detector>() {
+            @Override
+            public Detector call() throws IOException {
+                Detector detector = new Detector(context, modelPath, labelPath);
+                detector.setup();
+                detector.warmUp();
+                return detector;
+            }
+        });
+    }
+}
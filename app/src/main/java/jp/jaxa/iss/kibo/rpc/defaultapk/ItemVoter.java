@@ -0,0 +1,96 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 複数フレームの認識結果を、確信度で重み付けした投票でまとめるクラス
+ * アイテム名ごとの確信度の合計が最も大きい名前を選び、その名前の中で確信度の合計が最も大きい個数を選ぶ
+ * 同じインスタンスを複数スレッドから同時に使ってはいけない
+ */
+public final class ItemVoter {
+    private final int stableFrames;   // 連続してこのフレーム数だけ1位と同じ結果が出たら安定とみなす
+    private final Map<String, Map<Integer, Float>> votes = new HashMap<>();  // 名前→個数→確信度の合計
+    private AreaItem leader;          // 現在の1位
+    private int streak;               // 1位と同じ結果が連続したフレーム数
+    private int numFrames;            // 投票したフレーム数
+
+    // コンストラクタ
+    public ItemVoter(int stableFrames) {
+        this.stableFrames = stableFrames;
+    }
+
+    /**
+     * 1フレーム分の認識結果を投票します. 確信度が0の結果(何も検出できなかった)は票にならない
+     */
+    public void add(AreaItem item) {
+        ++numFrames;
+        if (item.getConfidence() <= 0) {
+            streak = 0;
+            return;
+        }
+        Map<Integer, Float> counts = votes.get(item.getName());
+        if (counts == null) {
+            counts = new HashMap<>();
+            votes.put(item.getName(), counts);
+        }
+        Float weight = counts.get(item.getNum());
+        counts.put(item.getNum(), (weight == null ? 0 : weight) + item.getConfidence());
+
+        leader = computeLeader();
+        if (leader.getName().equals(item.getName()) && leader.getNum() == item.getNum()) {
+            ++streak;
+        } else {
+            streak = 0;
+        }
+    }
+
+    /**
+     * 1位の結果が連続してstableFramesフレーム出ていればtrueを返します
+     */
+    public boolean isStable() {
+        return streak >= stableFrames;
+    }
+
+    /**
+     * あとframesフレームの投票で安定する可能性があればtrueを返します
+     */
+    public boolean canBecomeStable(int frames) {
+        return streak + frames >= stableFrames;
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * 投票の結果を返します. 票が1つもなければ("beaker", 3)を返す
+     */
+    public AreaItem getResult() {
+        return leader != null ? leader : new AreaItem("beaker", 3);
+    }
+
+    private AreaItem computeLeader() {
+        String bestName = null;
+        float bestNameWeight = -1;
+        for (Map.Entry<String, Map<Integer, Float>> entry : votes.entrySet()) {
+            float sum = 0;
+            for (float weight : entry.getValue().values()) {
+                sum += weight;
+            }
+            if (sum > bestNameWeight) {
+                bestNameWeight = sum;
+                bestName = entry.getKey();
+            }
+        }
+        int bestNum = 0;
+        float bestNumWeight = -1;
+        for (Map.Entry<Integer, Float> entry : votes.get(bestName).entrySet()) {
+            if (entry.getValue() > bestNumWeight) {
+                bestNumWeight = entry.getValue();
+                bestNum = entry.getKey();
+            }
+        }
+        return new AreaItem(bestName, bestNum, bestNameWeight);
+    }
+}
@@ -0,0 +1,140 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import android.util.Log;
+
+/**
+ * ミッションの経過時間を制限時間と比べて管理するクラス
+ * 帰りの移動とミッション終了の処理に必要な時間を残した上での余裕(slack)を求め、
+ * 再試行の回数や撮影するフレーム数、デバッグ画像の保存をその余裕に応じて減らす
+ */
+public final class MissionClock {
+    private static final String TAG = "MissionClock";
+
+    /**
+     * ミッションの段階と、その段階に割り当てる時間[ms]
+     */
+    public enum Phase {
+        MOVE(0),
+        CAPTURE(3000),       // 1エリアの撮影と結果待ち
+        VISION(10000),       // 全エリアの認識結果を待つ
+        RETURN(40000);       // 宇宙飛行士の前から目的のエリアまでの移動
+
+        private final long budget;
+
+        Phase(long budget) {
+            this.budget = budget;
+        }
+
+        public long getBudget() {
+            return budget;
+        }
+    }
+
+    // ミッション終了の処理(画像の書き出しとスナップショット)のために残しておく時間[ms]
+    private static final long FINISH_RESERVE = 5000;
+    // 結果を待つ時間の下限[ms]. 余裕がなくても、ミッション終了の処理に間に合う範囲でこれだけは待つ
+    private static final long MIN_WAIT = 500;
+    // これ以上余裕があれば、再試行やフレーム数を減らさない[ms]
+    private static final long COMFORTABLE_SLACK = 60000;
+
+    private final long limit;   // 制限時間[ms]
+    private long startTime;
+    private Phase phase = Phase.MOVE;
+    private long phaseStartTime;
+
+    /**
+     * @param limit ミッションの制限時間[ms]
+     */
+    public MissionClock(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * 時間の計測を始めます(startMissionの直後に呼ぶ)
+     */
+    public synchronized void start() {
+        startTime = System.currentTimeMillis();
+        phaseStartTime = startTime;
+    }
+
+    public synchronized void beginPhase(Phase phase) {
+        long now = System.currentTimeMillis();
+        Log.i(TAG, this.phase + " took " + (now - phaseStartTime) + "ms, " + phase + " starts at " + (now - startTime) + "ms (remaining " + remaining() + "ms)");
+        this.phase = phase;
+        this.phaseStartTime = now;
+    }
+
+    public synchronized Phase getPhase() {
+        return phase;
+    }
+
+    public synchronized long elapsed() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    public synchronized long remaining() {
+        return limit - elapsed();
+    }
+
+    /**
+     * 後の段階に必要な時間を残した上で、今使える余裕を返します[ms]
+     */
+    public synchronized long slack() {
+        long reserve = FINISH_RESERVE;
+        if (phase != Phase.RETURN) {
+            reserve += Phase.RETURN.getBudget();
+        }
+        return remaining() - reserve;
+    }
+
+    /**
+     * 余裕があるほど1に近づく値(0〜1)
+     */
+    public double scale() {
+        return Math.max(0, Math.min(1, (double) slack() / COMFORTABLE_SLACK));
+    }
+
+    /**
+     * 余裕に応じた再試行の回数を返します(最低1回)
+     */
+    public int retries(int max) {
+        return Math.max(1, (int) Math.round(max * scale()));
+    }
+
+    /**
+     * 余裕に応じた撮影フレーム数を返します(最低1フレーム)
+     */
+    public int frames(int max) {
+        return Math.max(1, (int) Math.round(max * scale()));
+    }
+
+    /**
+     * 余裕に応じてその段階に使える時間を返します[ms]
+     */
+    public long budget(Phase phase) {
+        return Math.max(0, Math.min((long) (phase.getBudget() * scale()), slack()));
+    }
+
+    /**
+     * その段階の処理の結果を待つ時間を返します[ms]
+     * 余裕に応じた時間(budget)が短くてもMIN_WAITは待つ. ただしミッション終了の処理に必要な時間には食い込まない
+     */
+    public synchronized long waitBudget(Phase phase) {
+        long untilFinishReserve = Math.max(0, remaining() - FINISH_RESERVE);
+        return Math.max(budget(phase), Math.min(MIN_WAIT, untilFinishReserve));
+    }
+
+    /**
+     * デバッグ用の画像を保存する余裕があればtrueを返します
+     */
+    public boolean allowDebugSaves() {
+        return scale() >= 0.5;
+    }
+
+    /**
+     * その段階に割り当てた時間を使っても、ミッション終了の処理に間に合うならtrueを返します
+     */
+    public synchronized boolean hasTimeFor(Phase phase) {
+        return remaining() - FINISH_RESERVE >= phase.getBudget();
+    }
+}
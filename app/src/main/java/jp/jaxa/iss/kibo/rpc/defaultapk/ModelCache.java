@@ -0,0 +1,56 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * プロセス全体で共有するモデルファイルのキャッシュ
+ * アセットを直接メモリマップするので、ヒープへのコピーは発生しない
+ * (aaptOptions noCompress "tflite" でtfliteは非圧縮で格納されている必要がある)
+ */
+final class ModelCache {
+    private static final Map<String, MappedByteBuffer> models = new HashMap<>();
+
+    private ModelCache() {}
+
+    /**
+     * モデルをメモリマップして返します. 同じパスが既に読み込まれていればそれを再利用します
+     * @param context アセットを開くためのコンテキスト
+     * @param modelPath アセット内のモデルファイルのパス
+     * @return 読み取り専用でマップされたモデル
+     */
+    static synchronized MappedByteBuffer load(Context context, String modelPath) throws IOException {
+        MappedByteBuffer model = models.get(modelPath);
+        if (model != null) {
+            return model;
+        }
+        try (AssetFileDescriptor fileDescriptor = context.getAssets().openFd(modelPath);
+             FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+             FileChannel channel = inputStream.getChannel()) {
+            model = channel.map(FileChannel.MapMode.READ_ONLY, fileDescriptor.getStartOffset(), fileDescriptor.getDeclaredLength());
+        }
+        models.put(modelPath, model);
+        return model;
+    }
+
+    /**
+     * モデルが既にキャッシュされているかを返します
+     */
+    static synchronized boolean contains(String modelPath) {
+        return models.containsKey(modelPath);
+    }
+
+    /**
+     * キャッシュを空にします(起動時間の計測用. マップしたバッファはGCで解放される)
+     */
+    static synchronized void clear() {
+        models.clear();
+    }
+}
@@ -0,0 +1,190 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import java.util.Arrays;
+
+/**
+ * DetectionResultに対する非最大抑制 (NMS)
+ * 配列の番号だけで処理するので、検出結果のオブジェクトは作らない
+ * 作業用の配列を使い回すため、同じインスタンスを複数スレッドから同時に使ってはいけない
+ */
+public final class NonMaxSuppression {
+    private float iouThreshold;        // これ以上重なっていれば抑制する
+    private float containmentThreshold; // 小さい方のボックスのこの割合以上が重なっていれば抑制する(0以下なら使わない)
+    private float scoreThreshold;      // Soft-NMSで確信度がこれを下回ったら取り除く
+    private int topK;                  // NMSの前に確信度の上位topK個だけを残す(0以下なら制限しない)
+    private boolean classAware;        // trueなら同じクラス同士でのみ抑制する
+    private boolean softNms;           // trueならSoft-NMS(ガウス関数で確信度を下げる)を使う
+    private float softNmsSigma = 0.5F; // Soft-NMSのガウス関数の広がり
+
+    // 作業用の配列
+    private long[] sortKeys = new long[0];  // 確信度と番号を詰めたキー
+    private int[] order = new int[0];       // 確信度の降順に並べた番号
+    private float[] areas = new float[0];   // 各ボックスの面積
+    private boolean[] removed = new boolean[0];
+
+    // コンストラクタ
+    public NonMaxSuppression(float iouThreshold) {
+        this.iouThreshold = iouThreshold;
+    }
+
+    public void setIouThreshold(float iouThreshold) {
+        this.iouThreshold = iouThreshold;
+    }
+
+    /**
+     * 重なりの面積が小さい方のボックスの面積に占める割合でも抑制するようにします
+     * タイルの境界で切れた一部分のボックスは、全体のボックスとのIoUが小さくても大部分が含まれるので、これで取り除ける
+     * @param containmentThreshold 0以下なら使わない
+     */
+    public void setContainmentThreshold(float containmentThreshold) {
+        this.containmentThreshold = containmentThreshold;
+    }
+
+    public void setScoreThreshold(float scoreThreshold) {
+        this.scoreThreshold = scoreThreshold;
+    }
+
+    public void setTopK(int topK) {
+        this.topK = topK;
+    }
+
+    public void setClassAware(boolean classAware) {
+        this.classAware = classAware;
+    }
+
+    public void setSoftNms(boolean softNms, float sigma) {
+        this.softNms = softNms;
+        this.softNmsSigma = sigma;
+    }
+
+    /**
+     * NMSを適用し、残った検出結果だけになるようにboxesを書き換えます
+     * 残った結果は元の順番のまま前に詰められます
+     */
+    public void apply(DetectionResult boxes) {
+        int n = boxes.size();
+        if (n == 0) {
+            return;
+        }
+        ensureCapacity(n);
+
+        // 確信度(正の値なのでビット列の大小と一致する)を上位32bit、番号を下位32bitに詰めて並べる
+        for (int i = 0; i < n; i++) {
+            sortKeys[i] = ((long) Float.floatToIntBits(boxes.getScore(i)) << 32) | i;
+            areas[i] = (boxes.getX2(i) - boxes.getX1(i)) * (boxes.getY2(i) - boxes.getY1(i));
+            removed[i] = false;
+        }
+        Arrays.sort(sortKeys, 0, n);
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) sortKeys[n - 1 - i];
+        }
+
+        // 上位topK個より後ろは最初から取り除く
+        int count = n;
+        if (topK > 0 && count > topK) {
+            for (int i = topK; i < n; i++) {
+                removed[order[i]] = true;
+            }
+            count = topK;
+        }
+
+        if (softNms) {
+            applySoft(boxes, count);
+        } else {
+            applyHard(boxes, count);
+        }
+
+        // 残った結果を前に詰める
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (!removed[i]) {
+                boxes.move(i, kept++);
+            }
+        }
+        boxes.truncate(kept);
+    }
+
+    // 通常のNMS: 確信度の高い順に、重なっているボックスを取り除く
+    private void applyHard(DetectionResult boxes, int count) {
+        for (int a = 0; a < count; a++) {
+            int first = order[a];
+            if (removed[first]) {
+                continue;
+            }
+            for (int b = a + 1; b < count; b++) {
+                int next = order[b];
+                if (removed[next] || (classAware && boxes.getClassId(first) != boxes.getClassId(next))) {
+                    continue;
+                }
+                if (calculateIoU(boxes, first, next) >= iouThreshold || isContained(boxes, first, next)) {
+                    removed[next] = true;
+                }
+            }
+        }
+    }
+
+    // Soft-NMS: 重なっているボックスの確信度を下げ、scoreThresholdを下回ったものを取り除く
+    private void applySoft(DetectionResult boxes, int count) {
+        for (int a = 0; a < count; a++) {
+            // 確信度が変わるので、残っている中で最大のものを選び直して先頭に持ってくる
+            int best = a;
+            for (int b = a + 1; b < count; b++) {
+                if (boxes.getScore(order[b]) > boxes.getScore(order[best])) {
+                    best = b;
+                }
+            }
+            int first = order[best];
+            order[best] = order[a];
+            order[a] = first;
+            if (removed[first]) {
+                continue;
+            }
+            for (int b = a + 1; b < count; b++) {
+                int next = order[b];
+                if (removed[next] || (classAware && boxes.getClassId(first) != boxes.getClassId(next))) {
+                    continue;
+                }
+                // 大部分が含まれているボックスは、完全に重なっているものとして扱う
+                float iou = isContained(boxes, first, next) ? 1.0F : calculateIoU(boxes, first, next);
+                float score = boxes.getScore(next) * (float) Math.exp(-(iou * iou) / softNmsSigma);
+                boxes.setScore(next, score);
+                if (score < scoreThreshold) {
+                    removed[next] = true;
+                }
+            }
+        }
+    }
+
+    // IoU (Intersection over Union) の計算
+    private float calculateIoU(DetectionResult boxes, int i, int j) {
+        float intersectionArea = calculateIntersection(boxes, i, j);
+        return intersectionArea / (areas[i] + areas[j] - intersectionArea);
+    }
+
+    // 小さい方のボックスの大部分がもう一方に含まれていればtrue
+    private boolean isContained(DetectionResult boxes, int i, int j) {
+        if (containmentThreshold <= 0) {
+            return false;
+        }
+        float minArea = Math.min(areas[i], areas[j]);
+        return minArea > 0 && calculateIntersection(boxes, i, j) / minArea >= containmentThreshold;
+    }
+
+    private static float calculateIntersection(DetectionResult boxes, int i, int j) {
+        float x1 = Math.max(boxes.getX1(i), boxes.getX1(j));
+        float y1 = Math.max(boxes.getY1(i), boxes.getY1(j));
+        float x2 = Math.min(boxes.getX2(i), boxes.getX2(j));
+        float y2 = Math.min(boxes.getY2(i), boxes.getY2(j));
+        return Math.max(0, x2 - x1) * Math.max(0, y2 - y1);
+    }
+
+    private void ensureCapacity(int n) {
+        if (sortKeys.length < n) {
+            int capacity = Math.max(n, sortKeys.length * 2);
+            sortKeys = new long[capacity];
+            order = new int[capacity];
+            areas = new float[capacity];
+            removed = new boolean[capacity];
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import android.util.Log;
+
+/**
+ * 処理の段階ごとの経過時間をログに出すためのタイマー
+ */
+final class StageTimer {
+    private final String tag;
+    private final String name;
+    private final long startTime;
+    private long lapTime;
+
+    // コンストラクタ
+    StageTimer(String tag, String name) {
+        this.tag = tag;
+        this.name = name;
+        this.startTime = System.nanoTime();
+        this.lapTime = startTime;
+    }
+
+    // 前回のlap()からの経過時間をstageの時間として出力する
+    void lap(String stage) {
+        long now = System.nanoTime();
+        Log.i(tag, name + " " + stage + ": " + (now - lapTime) / 1000000 + "ms");
+        lapTime = now;
+    }
+
+    // 開始からの経過時間を出力する
+    void total() {
+        Log.i(tag, name + " total: " + (System.nanoTime() - startTime) / 1000000 + "ms");
+    }
+}
@@ -0,0 +1,175 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 高解像度の画像を重なりのあるタイルに分けて検出するクラス
+ * 画像全体を入力サイズに縮小すると小さいアイテムが数ピクセルになって見落とされるので、
+ * タイルごとに検出してから元の画像の座標に戻し、タイルをまたいだ重複をNMSでまとめる
+ * タイルの境界(画像の端ではない辺)で切れたボックスは、隣のタイルか画像全体の検出で写っているはずなので、
+ * 画像全体も検出する場合は取り除く. 残った重複は、IoUか包含の割合のどちらかが閾値を超えれば抑制する
+ */
+public final class TiledDetector {
+    private final Detector detector;
+    private int tileSize = 640;          // タイルの一辺の長さ[px]
+    private float overlap = 0.2F;        // 隣り合うタイルの重なりの割合
+    private int maxTiles = 6;            // タイルの最大数(これを超える場合はタイルを大きくする)
+    private boolean includeFullFrame = true; // 画像全体を縮小したものも一緒に検出するか
+    private final NonMaxSuppression mergeNms; // タイル間の重複をまとめるNMS
+
+    // タイルの境界に接しているとみなす距離[px]
+    private static final float SEAM_TOLERANCE = 2.0F;
+
+    // コンストラクタ
+    public TiledDetector(Detector detector) {
+        this.detector = detector;
+        this.mergeNms = new NonMaxSuppression(0.4F);
+        this.mergeNms.setClassAware(true);
+        this.mergeNms.setContainmentThreshold(0.6F);
+    }
+
+    public void setTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    public void setOverlap(float overlap) {
+        this.overlap = overlap;
+    }
+
+    public void setMaxTiles(int maxTiles) {
+        this.maxTiles = maxTiles;
+    }
+
+    public void setIncludeFullFrame(boolean includeFullFrame) {
+        this.includeFullFrame = includeFullFrame;
+    }
+
+    public NonMaxSuppression getMergeNms() {
+        return mergeNms;
+    }
+
+    public Detector getDetector() {
+        return detector;
+    }
+
+    /**
+     * 画像をタイルに分けて検出します
+     * タイルは(画像全体と一緒に)1回のバッチ推論でまとめて処理します
+     * @return 画像全体に対する正規化座標(0〜1)での検出結果
+     */
+    public DetectionResult detect(Mat frame) {
+        List<Rect> tiles = createTiles(frame.cols(), frame.rows());
+
+        List<Mat> images = new ArrayList<>(tiles.size() + 1);
+        for (Rect tile : tiles) {
+            images.add(frame.submat(tile));
+        }
+        // タイルが1枚で画像全体を覆う場合は、画像全体の検出と同じになるので省く
+        boolean fullFrame = includeFullFrame && !(tiles.size() == 1 && tiles.get(0).width == frame.cols() && tiles.get(0).height == frame.rows());
+        if (fullFrame) {
+            images.add(frame);
+        }
+        List<DetectionResult> tileResults;
+        try {
+            tileResults = detector.detectBatch(images);
+        } finally {
+            // タイルのsubmatのヘッダを解放する(画像全体はframeそのものなので解放しない)
+            for (int i = 0; i < tiles.size(); i++) {
+                images.get(i).release();
+            }
+        }
+        return merge(tiles, tileResults, frame.cols(), frame.rows(), fullFrame, mergeNms,
+                detector.getLabels(), detector.getNumClasses());
+    }
+
+    /**
+     * タイルごとの検出結果を画像全体の座標に戻してまとめます
+     * @param tileResults タイルごとの検出結果(タイルの正規化座標). tilesより1つ多い場合、最後は画像全体の検出結果
+     * @param dropSeamBoxes trueならタイルの境界で切れたボックスを取り除く
+     * @return 画像全体に対する正規化座標(0〜1)での検出結果
+     */
+    static DetectionResult merge(List<Rect> tiles, List<DetectionResult> tileResults, int frameCols, int frameRows,
+                                 boolean dropSeamBoxes, NonMaxSuppression nms, List<String> labels, int numClasses) {
+        DetectionResult merged = new DetectionResult(labels, numClasses, 64);
+        float frameWidth = frameCols;
+        float frameHeight = frameRows;
+        for (int t = 0; t < tileResults.size(); t++) {
+            DetectionResult tileResult = tileResults.get(t);
+            if (tileResult == null) {
+                continue;
+            }
+            if (t >= tiles.size()) {
+                // 画像全体の結果はそのまま使う
+                for (int i = 0; i < tileResult.size(); i++) {
+                    merged.add(tileResult.getX1(i), tileResult.getY1(i), tileResult.getX2(i), tileResult.getY2(i), tileResult.getScore(i), tileResult.getClassId(i));
+                }
+                continue;
+            }
+            Rect tile = tiles.get(t);
+            // タイルの各辺が画像の内側にあるか(内側の辺で切れたボックスは一部分しか写っていない)
+            float toleranceX = SEAM_TOLERANCE / tile.width;
+            float toleranceY = SEAM_TOLERANCE / tile.height;
+            boolean seamLeft = tile.x > 0;
+            boolean seamTop = tile.y > 0;
+            boolean seamRight = tile.x + tile.width < frameCols;
+            boolean seamBottom = tile.y + tile.height < frameRows;
+            for (int i = 0; i < tileResult.size(); i++) {
+                if (dropSeamBoxes
+                        && ((seamLeft && tileResult.getX1(i) <= toleranceX)
+                        || (seamTop && tileResult.getY1(i) <= toleranceY)
+                        || (seamRight && tileResult.getX2(i) >= 1 - toleranceX)
+                        || (seamBottom && tileResult.getY2(i) >= 1 - toleranceY))) {
+                    continue;
+                }
+                merged.add(
+                        (tile.x + tileResult.getX1(i) * tile.width) / frameWidth,
+                        (tile.y + tileResult.getY1(i) * tile.height) / frameHeight,
+                        (tile.x + tileResult.getX2(i) * tile.width) / frameWidth,
+                        (tile.y + tileResult.getY2(i) * tile.height) / frameHeight,
+                        tileResult.getScore(i),
+                        tileResult.getClassId(i));
+            }
+        }
+
+        // タイルをまたいで重複した検出をまとめる
+        nms.apply(merged);
+        return merged;
+    }
+
+    // 画像を重なりのあるタイルに分ける. タイル数がmaxTilesを超える場合はタイルを大きくする
+    private List<Rect> createTiles(int width, int height) {
+        int size = tileSize;
+        int numX = countTiles(width, size);
+        int numY = countTiles(height, size);
+        while (numX * numY > maxTiles && size < Math.max(width, height)) {
+            size = size * 5 / 4;
+            numX = countTiles(width, size);
+            numY = countTiles(height, size);
+        }
+
+        int tileWidth = Math.min(size, width);
+        int tileHeight = Math.min(size, height);
+        List<Rect> tiles = new ArrayList<>(numX * numY);
+        for (int j = 0; j < numY; j++) {
+            int y = (numY == 1) ? 0 : Math.round((float) j * (height - tileHeight) / (numY - 1));
+            for (int i = 0; i < numX; i++) {
+                int x = (numX == 1) ? 0 : Math.round((float) i * (width - tileWidth) / (numX - 1));
+                tiles.add(new Rect(x, y, tileWidth, tileHeight));
+            }
+        }
+        return tiles;
+    }
+
+    // 長さlengthを、重なりを持たせて一辺sizeのタイルで覆うのに必要な数
+    private int countTiles(int length, int size) {
+        if (length <= size) {
+            return 1;
+        }
+        int stride = Math.max(1, Math.round(size * (1.0F - overlap)));
+        return (length - size + stride - 1) / stride + 1;
+    }
+}
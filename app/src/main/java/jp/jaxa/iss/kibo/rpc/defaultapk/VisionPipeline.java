@@ -0,0 +1,83 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 画像認識をバックグラウンドで実行するパイプライン
+ * ミッションのスレッドは画像を撮影して投入したら、結果を待たずに次の移動を始められる
+ * Detectorは複数スレッドから同時に使えないので、ワーカーは1つだけにしている
+ */
+public final class VisionPipeline {
+    private static final String TAG = "VisionPipeline";
+    // 待ち行列が空くのを待つ間、ワーカーが止められていないかを確認する間隔[ms]
+    private static final long SHUTDOWN_POLL_MILLIS = 100;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param queueCapacity 待ち行列の長さ. いっぱいのときはsubmit()が空くまで待つ
+     */
+    public VisionPipeline(int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // 待ち行列が空くまで投入側を待たせる. 止めた後は誰も取り出さないので、待たずに断る
+                        try {
+                            while (!executor.isShutdown()) {
+                                if (executor.getQueue().offer(r, SHUTDOWN_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                                    // 入れた直後に止められた場合は実行されないので取り消す
+                                    if (executor.isShutdown() && executor.remove(r)) {
+                                        break;
+                                    }
+                                    return;
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                        throw new RejectedExecutionException("VisionPipeline has been shut down");
+                    }
+                });
+    }
+
+    /**
+     * 処理を投入します. 待ち時間と実行時間はログに出力されます
+     * @param name ログに出す処理の名前
+     * @return 処理結果を返すFuture
+     * @throws RejectedExecutionException shutdown()の後に投入した場合
+     */
+    public <T> Future<T> submit(final String name, final Callable<T> task) {
+        final long submitTime = System.nanoTime();
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                long startTime = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    long endTime = System.nanoTime();
+                    Log.i(TAG, name + ": wait=" + (startTime - submitTime) / 1000000 + "ms"
+                            + ", run=" + (endTime - startTime) / 1000000 + "ms");
+                }
+            }
+        });
+    }
+
+    /**
+     * 投入済みの処理が終わったらワーカーを止めます
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
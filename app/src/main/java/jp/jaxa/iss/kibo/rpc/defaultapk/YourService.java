@@ -1,30 +1,48 @@
 package jp.jaxa.iss.kibo.rpc.defaultapk;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Log;
 
 import org.opencv.android.Utils;
-import org.opencv.aruco.Aruco;
-import org.opencv.aruco.Dictionary;
-import org.opencv.calib3d.Calib3d;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import gov.nasa.arc.astrobee.Kinematics;
 import gov.nasa.arc.astrobee.Result;
 import gov.nasa.arc.astrobee.types.Point;
 import gov.nasa.arc.astrobee.types.Quaternion;
 import jp.jaxa.iss.kibo.rpc.api.KiboRpcService;
+import jp.jaxa.iss.kibo.rpc.defaultapk.field.Area;
+import jp.jaxa.iss.kibo.rpc.defaultapk.image.CameraModel;
+import jp.jaxa.iss.kibo.rpc.defaultapk.image.CameraMount;
+import jp.jaxa.iss.kibo.rpc.defaultapk.image.ImageSink;
 import jp.jaxa.iss.kibo.rpc.defaultapk.image.ImageUtil;
+import jp.jaxa.iss.kibo.rpc.defaultapk.image.MarkerDetector;
+import jp.jaxa.iss.kibo.rpc.defaultapk.image.RoiPredictor;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Quat;
 import jp.jaxa.iss.kibo.rpc.defaultapk.math.QuaternionUtil;
+import jp.jaxa.iss.kibo.rpc.defaultapk.motion.MetricsRegistry;
+import jp.jaxa.iss.kibo.rpc.defaultapk.motion.MoveExecutor;
+import jp.jaxa.iss.kibo.rpc.defaultapk.motion.RetryPolicies;
+import jp.jaxa.iss.kibo.rpc.defaultapk.motion.RetryPolicy;
+import jp.jaxa.iss.kibo.rpc.defaultapk.planner.LookAtSolver;
+import jp.jaxa.iss.kibo.rpc.defaultapk.planner.PathPlanner;
+import jp.jaxa.iss.kibo.rpc.defaultapk.planner.RouteTable;
+import jp.jaxa.iss.kibo.rpc.defaultapk.planner.ViewpointSolver;
 
 /**
  * Class meant to handle commands from the Ground Data System and execute them
@@ -35,61 +53,147 @@ public class YourService extends KiboRpcService {
 
     private final String TAG = this.getClass().getSimpleName();
 
-    public static boolean isInKOZ(double x, double z, double[][] koz){
-        double largeX = Math.max(koz[0][0], koz[1][0]);
-        double smallX = Math.min(koz[0][0], koz[1][0]);
-        double largeZ = Math.max(koz[0][2], koz[1][2]);
-        double smallZ = Math.min(koz[0][2], koz[1][2]);
-
-        return smallX <= x && x <= largeX && smallZ <= z && z <= largeZ;
-    }
-
     public static double calculateDistance(double[] point1, double[] point2) {
-        return Math.sqrt(Math.pow(point1[0] - point2[0], 2)
-                       + Math.pow(point1[1] - point2[1], 2)
-                       + Math.pow(point1[2] - point2[2], 2));
+        double dx = point1[0] - point2[0];
+        double dy = point1[1] - point2[1];
+        double dz = point1[2] - point2[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
     }
     private Detector detector_white;
     private Detector detector_back;
+    private TiledDetector tiled_detector_back;
+    private VisionPipeline visionPipeline;
+    private ExecutorService decodeExecutor;  // Detectorの出力のデコードを分けて実行するスレッド
+    private ImageSink imageSink;
+    private CameraModel navCamModel;
+    private CameraModel dockCamModel;
+    private final MarkerDetector markerDetector = new MarkerDetector();
+    private final MissionClock missionClock = new MissionClock(MISSION_TIME_LIMIT);
+    private MoveExecutor moveExecutor;
+    private PathPlanner pathPlanner;
+    private RouteTable routeTable;
+    private Point lastTarget;        // 最後に移動した目的地
+    private String lastTargetName;   // 最後に移動した目的地の名前
+    private Quaternion lastOrientation; // 最後に指示した姿勢
+    // 通過するだけの点では、移動先の近くにいれば失敗しても次へ進む
+    private RetryPolicy passThroughPolicy;
+    // 再試行しても目的地へ移動できなかったときは、今の位置から経路を求め直す
+    private final MoveExecutor.ReplanHook replanFromCurrentPosition = new MoveExecutor.ReplanHook() {
+        @Override
+        public List<Point> replan(String name, Point target, Quaternion orientation, Result lastResult) {
+            Kinematics kinematics = api.getRobotKinematics();
+            if (pathPlanner == null || kinematics == null || kinematics.getPosition() == null) {
+                return null;
+            }
+            Log.w(TAG, name + ": replanning from " + kinematics.getPosition());
+            return pathPlanner.plan(kinematics.getPosition(), target);
+        }
+    };
+
+    // ミッションの制限時間[ms]
+    private static final long MISSION_TIME_LIMIT = 5 * 60 * 1000;
+    // moveToなどの再試行の回数の上限(残り時間が少ないときは減らす)
+    private static final int LOOP_MAX = 5;
+    // 宇宙飛行士の画像を撮り直す回数の上限(残り時間が少ないときは減らす)
+    private static final int ASTRONAUT_IMAGE_LOOP_MAX = 10;
+    // 通過するだけの点で、移動に失敗しても次へ進んでよい移動先からの距離[m]
+    private static final double PASS_THROUGH_TOLERANCE = 0.05;
+    // 経路計画でKOZを広げる距離(ロボットの半径)[m]
+    private static final double ROBOT_RADIUS = 0.2;
+    // 経路計画でKIZを縮める距離[m]
+    private static final double KIZ_MARGIN = 0.05;
+    // 経路表の経路を使うとき、ロボットが出発地点からずれていてもよい距離[m]
+    private static final double ROUTE_TABLE_TOLERANCE = 0.1;
+
+    // NavCamとDockCamの画像サイズ
+    private static final Size CAMERA_IMAGE_SIZE = new Size(1280, 960);
+    // 撮影する位置と姿勢を求めるときの最初の姿勢(Area1へ向かうときの姿勢. NavCamがy軸負方向を向く)
+    private static final Quaternion EXPECTED_START_ORIENTATION = QuaternionUtil.rotate(0, 0, -1, (float) (Math.PI * 0.5));
+    // 宇宙飛行士が画像を持っている位置(宇宙飛行士の前の位置からy軸正方向、KIZ1の端)
+    private static final Point ASTRONAUT_POSITION = new Point(11.143, -6.0, 4.9654);
+    // 台紙が写る範囲を予測するとき、姿勢の誤差や歪みの分として上下左右に広げる割合
+    private static final double ROI_MARGIN_RATIO = 0.5;
+
+    // 1つのエリアで撮影するフレーム数の上限(残り時間が少ないときは減らす)
+    private static final int MAX_FRAMES_PER_AREA = 3;
+    // 連続してこのフレーム数だけ同じ結果が出たら撮影をやめる
+    private static final int VOTE_STABLE_FRAMES = 2;
+
+    // 保存待ちの画像の合計バイト数の上限
+    private static final long IMAGE_SINK_BYTE_BUDGET = 32L * 1024 * 1024;
+    // ミッション終了前に保存待ちの画像を書き出す時間の上限[ms]
+    private static final long IMAGE_SINK_FLUSH_TIMEOUT = 2000;
 
     @Override
     protected void runPlan1() {
-        double kiz1XMin = 10.3;
-        double kiz1XMax = 11.55;
-        double kiz1ZMin = 4.32;
-        double kiz1ZMax = 5.57;
+        // 画像の保存は専用のスレッドで行う
+        imageSink = new ImageSink(api, IMAGE_SINK_BYTE_BUDGET);
 
-        // 20cm余分に取っている
-        double[][] koz1Position1 = {{10.67, -9.5, 4.07}, {11.8, -9.45, 5.17}};
-        double[][] koz1Position2 = {{10.05, -9.5, 4.77}, {11.07, -9.45, 5.82}};
+        // moveToとフラッシュライトの操作は再試行と記録をまとめて行う
+        moveExecutor = new MoveExecutor(api, missionClock, new MetricsRegistry(), LOOP_MAX);
+        passThroughPolicy = RetryPolicies.relaxedTolerance(api, PASS_THROUGH_TOLERANCE);
 
-        double[][] koz2Position1 = {{10.67, -8.5, 4.77}, {11.8, -8.45, 5.82}};
-        double[][] koz2Position2 = {{10.05, -8.5, 4.07}, {10.9, -8.45, 5.17}};
-
-        double[][] koz3Position1 = {{10.67, -7.4, 4.07}, {11.8, -7.35, 5.17}};
-        double[][] koz3Position2 = {{10.05, -7.4, 4.77}, {11.07, -7.35, 5.82}};
+        // カメラの内部パラメータを取得し、歪み補正のテーブルを作っておく(撮影する位置を求めるのにも使う)
+        navCamModel = new CameraModel(api.getNavCamIntrinsics(), CAMERA_IMAGE_SIZE);
+        dockCamModel = new CameraModel(api.getDockCamIntrinsics(), CAMERA_IMAGE_SIZE);
 
         // Detectorのセットアップ
-        try {
-            detector_white = new Detector(getApplicationContext(), "white2.tflite", "labels.txt");
-            detector_white.setup();
-        } catch (IOException e) {
-            Log.e(TAG, "Detector setup failed", e);
-            return;
-        }
+        // 2つのモデルを並列に読み込み、ウォームアップまで済ませる(startMissionと並行して進む)
+        // tensorflowlite_jniの読み込みもDetectorLoaderのタスクの中で行われる
+        ExecutorService startupExecutor = Executors.newFixedThreadPool(3);
+        final Future<Detector> detectorWhiteReady = DetectorLoader.setupAsync(startupExecutor, getApplicationContext(), "white2.tflite", "labels.txt");
+        Future<Detector> detectorBackReady = DetectorLoader.setupAsync(startupExecutor, getApplicationContext(), "model_v4.tflite", "labels.txt");
+
+        // 撮影する位置と姿勢(名前はmoveAlongに渡す名前と同じ). 経路表を作るタスクの中で求める
+        final Map<String, Point> viewPoints = new LinkedHashMap<>();
+        final Map<String, Quaternion> viewOrientations = new HashMap<>();
+        // 宇宙飛行士の前から戻って各エリアを撮影するときの姿勢
+        final Map<String, Quaternion> returnOrientations = new HashMap<>();
+        // 経路計画の可視グラフと経路表も並行して作る
+        Future<RouteTable> routeTableReady = startupExecutor.submit(new Callable<RouteTable>() {
+            @Override
+            public RouteTable call() throws Exception {
+                PathPlanner planner = new PathPlanner(ROBOT_RADIUS, KIZ_MARGIN);
+                // 切り抜いた台紙を拡大縮小せずに済むよう、台紙がDetectorの入力サイズで写る位置を求める
+                solveViewPoints(detectorWhiteReady.get().getInputSize(), viewPoints, viewOrientations, returnOrientations);
+                // 撮影する位置の全ての組について、経路表を作る
+                return new RouteTable(planner, viewPoints);
+            }
+        });
+        startupExecutor.shutdown();
+
+        Log.i(TAG, "Start mission!!!");
+
+        // The mission starts.
+        api.startMission();
+        missionClock.start();
 
+        // ミッションの処理に入る前に、両方のDetectorの準備が終わるのを待つ
         try {
-            detector_back = new Detector(getApplicationContext(), "model_v4.tflite", "labels.txt");
-            detector_back.setup();
-        } catch (IOException e) {
-            Log.e(TAG, "Detector setup failed", e);
+            detector_white = detectorWhiteReady.get();
+            detector_back = detectorBackReady.get();
+            routeTable = routeTableReady.get();
+            pathPlanner = routeTable.getPlanner();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(TAG, "Setup failed", e);
             return;
         }
+        Point area1FirstViewPoint = viewPoints.get("area1FirstViewPoint");
+        Point pointInFrontOfArea2 = viewPoints.get("pointInFrontOfArea2");
+        Point pointInFrontOfArea3 = viewPoints.get("pointInFrontOfArea3");
+        Point pointInFrontOfArea4 = viewPoints.get("pointInFrontOfArea4");
+        Point pointInFrontOfAstronaut = viewPoints.get("pointInFrontOfAstronaut");
 
-        Log.i(TAG, "Start mission!!!");
+        // アンカーの数が多いので、デコードはコアの数に分けて並列に行う(両方のDetectorは同じワーカーから使うので共有する)
+        int numCores = Runtime.getRuntime().availableProcessors();
+        decodeExecutor = Executors.newFixedThreadPool(numCores);
+        detector_white.setDecodeExecutor(decodeExecutor, numCores);
+        detector_back.setDecodeExecutor(decodeExecutor, numCores);
 
-        // The mission starts.
-        api.startMission();
+        // 台紙を切り抜けなかったときは画像全体をタイルに分けて検出する
+        tiled_detector_back = new TiledDetector(detector_back);
+        // 画像認識はこのパイプラインで移動と並行して行う
+        visionPipeline = new VisionPipeline(4);
 
         // 最初の座標は(9.815, -9.806, 4.293)
         // Area1への移動(とりあえず(x,y,z_min + x,y,z_max) / 2 , 向きも適当)
@@ -103,140 +207,24 @@ public class YourService extends KiboRpcService {
         // つまり、Astrobeeはまず最初に勝手にこの座標に移動する。よって、この座標をスタート地点として考慮する必要がある.
         Log.i(TAG, "StartLocationIs: " + startLocationPoint.getX() + ", " + startLocationPoint.getY() + ", " + startLocationPoint.getZ());
 
-        // KIZ2からKIZ1へ移動するために、まずZ軸正方向に移動し、その後、X軸正方向に移動する
-        Point kiz2ToKiz1FirstMove = new Point(10.26, -9.806, 4.56);
-        // z軸負方向を軸として、90度回転
-        // 視野: ｘ軸正方向 => y軸負方向
-        Quaternion quaternion1 = QuaternionUtil.rotate(0, 0, -1, (float) (Math.PI * 0.5));
-        Result resultMoveToKiz1FirstMove = api.moveTo(kiz2ToKiz1FirstMove, quaternion1, true);
-
-        int loopCounterKiz2ToKiz1FirstMove = 0;
-        while (!resultMoveToKiz1FirstMove.hasSucceeded() && loopCounterKiz2ToKiz1FirstMove < 5) {
-            // retry
-            resultMoveToKiz1FirstMove = api.moveTo(kiz2ToKiz1FirstMove, quaternion1, true);
-            ++loopCounterKiz2ToKiz1FirstMove;
-        }
-
-        Log.i(TAG, "GetIntoKIZ1!!!!");
+        // NavCamをArea1に向ける(撮影する位置と一緒に求めた姿勢. 視野はほぼy軸負方向)
+        Quaternion quaternion1 = viewOrientations.get("area1FirstViewPoint");
 
         // Flash light on
-        Result resultFlashLightOn = api.flashlightControlFront((float) 0.3);
-        int loopCounterFlashLight = 0;
-        while (!resultFlashLightOn.hasSucceeded() && loopCounterFlashLight < 5) {
-            // retry
-            resultFlashLightOn = api.flashlightControlFront((float) 0.3);
-            ++loopCounterFlashLight;
-        }
+        moveExecutor.flashlightFront("flashlightFrontOn", (float) 0.3);
 
-        // Area1の中心座標
-        // Area1の中心は(10.95,−10.58,5.195)
-        // NavCamはそこから(-0.0422, 0, -0.0826)
-        // とりあえず、Area1の中心から法線ベクトル上にある点に移動する
-        // x座標とz座標はArea1の中心から法線ベクトル上にある点
-        // y座標をArea1に近づける
-        // Area1の(0.525 + 0.1177)m手前に移動する
-        Point area1FirstViewPoint = new Point((10.95 + 0.0422), (-10.58 + 0.525 + 0.1177), (5.195 + 0.0826));
-        Result resultMoveToArea1 = api.moveTo(area1FirstViewPoint, quaternion1, true);
-
-        final int LOOP_MAX = 5;
-
-        // 結果をチェックし、moveToApiが成功しない間はループする。(外乱に強いプログラム)
-        int loopCounter = 0;
-        while (!resultMoveToArea1.hasSucceeded() && loopCounter < LOOP_MAX) {
-            // retry
-            resultMoveToArea1 = api.moveTo(area1FirstViewPoint, quaternion1, true);
-            ++loopCounter;
-        }
+        // KIZ2からKIZ1へは、経路計画でKIZ1とKIZ2が重なる部分を通る
+        // 結果をチェックし、moveToApiが成功しない間は再試行する。(外乱に強いプログラム)
+        moveAlong("area1FirstViewPoint", area1FirstViewPoint, quaternion1);
 
         Log.i(TAG, "InFrontOfArea1!!!!");
 
-        // Get a camera image. NavCam → 画像処理用のカメラ
-        Mat image = api.getMatNavCam();
-
-        // TODO imageがnullの場合の対処を書く
-
-        api.saveMatImage(image, "area1.png");
-
         /* *********************************************************************** */
         /* 各エリアにあるアイテムの種類と数を認識するコード */
         /* *********************************************************************** */
 
-        // ARタグを検知する
-        Dictionary dictionary = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
-        List<Mat> corners = new ArrayList<>();
-        Mat markerIds = new Mat();
-        Aruco.detectMarkers(image, dictionary, corners, markerIds);
-
-        // カメラ行列の取得
-        Mat cameraMatrix = new Mat(3, 3, CvType.CV_64F);
-        cameraMatrix.put(0, 0, api.getNavCamIntrinsics()[0]);
-        // 歪み係数の取得
-        Mat cameraCoefficients = new Mat(1, 5, CvType.CV_64F);
-        cameraCoefficients.put(0, 0, api.getNavCamIntrinsics()[1]);
-        cameraCoefficients.convertTo(cameraCoefficients, CvType.CV_64F);
-
-        // 歪みのないimage
-        Mat unDistortedImg = new Mat();
-        Calib3d.undistort(image, unDistortedImg, cameraMatrix, cameraCoefficients);
-
-        api.saveMatImage(unDistortedImg, "unDistortedImgOfArea1.png");
-
-        // 台紙切り抜き
-        Mat clippedImg = ImageUtil.clipAR(unDistortedImg);
-        if (clippedImg != null && !clippedImg.empty()) {
-            api.saveMatImage(clippedImg, "clippedImg.png");
-        } else {
-            Log.i(TAG, "clippedImg = null or empty");
-        }
-
-        String area1_item_name = "beaker";
-        int area1_item_num = 3;
-
-        if (clippedImg != null) {
-            Bitmap bitmapImage = matToBitmap(clippedImg);
-
-            List<BoundingBox> boundingBoxes = detector_white.detect(bitmapImage);
-            api.saveBitmapImage(detector_white.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area1_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                area1_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(area1_item_name.equals(entry.getKey()))
-                    {
-                        area1_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        } else {
-            Bitmap bitmapImage = matToBitmap(unDistortedImg);
-
-            List<BoundingBox> boundingBoxes = detector_back.detect(bitmapImage);
-            api.saveBitmapImage(detector_back.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area1_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                area1_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(area1_item_name.equals(entry.getKey()))
-                    {
-                        area1_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        }
-
-        // AreaとItemの紐付け
-        // setAreaInfo(areaId,item_name,item_number)
-        api.setAreaInfo(1,area1_item_name,area1_item_num);
+        // 複数フレームを撮影して認識し、投票で結果を決める(最後の認識はバックグラウンドで行い、その間に次のエリアへ移動する)
+        Future<AreaItem> area1ItemReady = captureAndRecognizeArea(Area.AREA1, CameraMount.NAV_CAM, navCamModel);
 
         // ARタグからカメラまでの距離と傾きを求めて、
         // 撮影した画像での座標に変換して画像用紙の部分だけを切り抜く
@@ -248,129 +236,23 @@ public class YourService extends KiboRpcService {
         /**
          * point2に移動して画像認識するコード
          */
-        /**
-         * KOZ1の前まで行く
-         */
-        Point point1ToGoThroughKOZ1 = new Point(10.67, -9.475, 4.77);
-        // y軸正方向を軸として、90度回転
-        // z軸正方向を軸として、90度回転
-        // 視野: z軸負方向へ変わる、90度曲がって見える（はず）
-        Quaternion quaternionArea2Y = QuaternionUtil.rotate(0, 1, 0, (float) (0.5 * Math.PI));
-        Quaternion quaternionArea2Z = QuaternionUtil.rotate(0, 0, 1, (float) (0.5 * Math.PI));
-        Quaternion quaternionInFrontOfArea2 = QuaternionUtil.product(quaternionArea2Z, quaternionArea2Y);
-        Result result1MoveToKOZ1 = api.moveTo(point1ToGoThroughKOZ1, quaternionInFrontOfArea2, true);
-
-        int loopCounter1KOZ1 = 0;
-        while (!result1MoveToKOZ1.hasSucceeded() && loopCounter1KOZ1 < 5) {
-            // retry
-            result1MoveToKOZ1 = api.moveTo(point1ToGoThroughKOZ1, quaternionInFrontOfArea2, true);
-            ++loopCounter1KOZ1;
-        }
-
-        Log.i(TAG, "InFrontOfKOZ1!!!!");
+        // NavCamをArea2に向ける(視野: z軸負方向)
+        Quaternion quaternionInFrontOfArea2 = viewOrientations.get("pointInFrontOfArea2");
 
         /**
-         * Area2に移動する
+         * KOZ1を通過し、Area2に移動する
          */
-        // Area2の(0.646 + 0.1177)m手前
-        Point pointInFrontOfArea2 = new Point((10.925 - 0.0422), (-8.875 + 0.0826), (3.76203 + 0.646 + 0.1177));
-        Result resultMoveToArea2 = api.moveTo(pointInFrontOfArea2, quaternionInFrontOfArea2, true);
-
-        int loopCounterArea2 = 0;
-        while (!resultMoveToArea2.hasSucceeded() && loopCounterArea2 < 5) {
-            // retry
-            resultMoveToArea2 = api.moveTo(pointInFrontOfArea2, quaternionInFrontOfArea2, true);
-            ++loopCounterArea2;
-        }
+        moveAlong("pointInFrontOfArea2", pointInFrontOfArea2, quaternionInFrontOfArea2);
 
         Log.i(TAG, "InFrontOfArea2!!!!");
 
-        Mat image2 = api.getMatNavCam();
-
-        // TODO image2がnullの場合の対処を書く
-
-        api.saveMatImage(image2, "area2.png");
 
         /* *********************************************************************** */
         /* 各エリアにあるアイテムの種類と数を認識するコード */
         /* *********************************************************************** */
 
-        // ARタグを検知する
-        Dictionary dictionary2 = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
-        List<Mat> corners2 = new ArrayList<>();
-        Mat markerIds2 = new Mat();
-        Aruco.detectMarkers(image2, dictionary2, corners2, markerIds2);
-
-        // カメラ行列の取得
-        Mat cameraMatrix2 = new Mat(3, 3, CvType.CV_64F);
-        cameraMatrix2.put(0, 0, api.getNavCamIntrinsics()[0]);
-        // 歪み係数の取得
-        Mat cameraCoefficients2 = new Mat(1, 5, CvType.CV_64F);
-        cameraCoefficients2.put(0, 0, api.getNavCamIntrinsics()[1]);
-        cameraCoefficients2.convertTo(cameraCoefficients2, CvType.CV_64F);
-
-        // 歪みのないimage
-        Mat unDistortedImg2 = new Mat();
-        Calib3d.undistort(image2, unDistortedImg2, cameraMatrix2, cameraCoefficients2);
-
-        api.saveMatImage(unDistortedImg2, "unDistortedImgOfArea2.png");
-
-        // 台紙切り抜き
-        Mat clippedImg2 = ImageUtil.clipAR(unDistortedImg2);
-        if (clippedImg2 != null && !clippedImg2.empty()) {
-            api.saveMatImage(clippedImg2, "clippedImg2.png");
-        } else {
-            Log.i(TAG, "clippedImg2 = null or empty");
-        }
-
-        String area2_item_name = "beaker";
-        int area2_item_num = 3;
-
-        if (clippedImg2 != null) {
-            Bitmap bitmapImage = matToBitmap(clippedImg2);
-
-            List<BoundingBox> boundingBoxes = detector_white.detect(bitmapImage);
-            api.saveBitmapImage(detector_white.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area2_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                area2_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(area2_item_name.equals(entry.getKey()))
-                    {
-                        area2_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        } else {
-            Bitmap bitmapImage = matToBitmap(unDistortedImg2);
-
-            List<BoundingBox> boundingBoxes = detector_back.detect(bitmapImage);
-            api.saveBitmapImage(detector_back.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area2_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                area2_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(area2_item_name.equals(entry.getKey()))
-                    {
-                        area2_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        }
-
-        // AreaとItemの紐付け
-        // setAreaInfo(areaId,item_name,item_number)
-        api.setAreaInfo(2,area2_item_name,area2_item_num);
+        // 複数フレームを撮影して認識し、投票で結果を決める(最後の認識はバックグラウンドで行い、その間に次のエリアへ移動する)
+        Future<AreaItem> area2ItemReady = captureAndRecognizeArea(Area.AREA2, CameraMount.NAV_CAM, navCamModel);
 
         /**
          * point3に移動して画像認識するコード
@@ -382,245 +264,47 @@ public class YourService extends KiboRpcService {
         /**
          * KOZ2を通過し、Area3に移動する
          */
-        // Area3の(0.699 + 0.1177)m手前
-        Point pointInFrontOfArea3 = new Point((10.925 - 0.0422), (-7.925 + 0.0826), (3.76203 + 0.699 + 0.1177));
-        // y軸正方向を軸として、90度回転
-        // 視野: z軸負方向へ変わる
-        Quaternion quaternionInFrontOfArea3 = quaternionInFrontOfArea2;
-        Result resultMoveToArea3 = api.moveTo(pointInFrontOfArea3, quaternionInFrontOfArea3, true);
-
-        int loopCounterArea3 = 0;
-        while (!resultMoveToArea3.hasSucceeded() && loopCounterArea3 < 5) {
-            // retry
-            resultMoveToArea3 = api.moveTo(pointInFrontOfArea3, quaternionInFrontOfArea3, true);
-            ++loopCounterArea3;
-        }
+        // NavCamをArea3に向ける(視野: z軸負方向. Area2とほぼ同じ姿勢になる)
+        Quaternion quaternionInFrontOfArea3 = viewOrientations.get("pointInFrontOfArea3");
+        moveAlong("pointInFrontOfArea3", pointInFrontOfArea3, quaternionInFrontOfArea3);
 
         Log.i(TAG, "InFrontOfArea3!!!!");
 
-        Mat image3 = api.getMatNavCam();
-
-        // TODO image3がnullの場合の対処を書く
-
-        api.saveMatImage(image3, "area3.png");
 
         /* *********************************************************************** */
         /* 各エリアにあるアイテムの種類と数を認識するコード */
         /* *********************************************************************** */
 
-        // ARタグを検知する
-        Dictionary dictionary3 = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
-        List<Mat> corners3 = new ArrayList<>();
-        Mat markerIds3 = new Mat();
-        Aruco.detectMarkers(image3, dictionary3, corners3, markerIds3);
-
-        // カメラ行列の取得
-        Mat cameraMatrix3 = new Mat(3, 3, CvType.CV_64F);
-        cameraMatrix3.put(0, 0, api.getNavCamIntrinsics()[0]);
-        // 歪み係数の取得
-        Mat cameraCoefficients3 = new Mat(1, 5, CvType.CV_64F);
-        cameraCoefficients3.put(0, 0, api.getNavCamIntrinsics()[1]);
-        cameraCoefficients3.convertTo(cameraCoefficients3, CvType.CV_64F);
-
-        // 歪みのないimage
-        Mat unDistortedImg3 = new Mat();
-        Calib3d.undistort(image3, unDistortedImg3, cameraMatrix3, cameraCoefficients3);
-
-        api.saveMatImage(unDistortedImg3, "unDistortedImgOfArea3.png");
-
-        // 台紙切り抜き
-        Mat clippedImg3 = ImageUtil.clipAR(unDistortedImg3);
-        if (clippedImg3 != null && !clippedImg3.empty()) {
-            api.saveMatImage(clippedImg3, "clippedImg3.png");
-        } else {
-            Log.i(TAG, "clippedImg3 = null or empty");
-        }
-
-        String area3_item_name = "beaker";
-        int area3_item_num = 3;
-
-        if (clippedImg3 != null) {
-            Bitmap bitmapImage = matToBitmap(clippedImg3);
-
-            List<BoundingBox> boundingBoxes = detector_white.detect(bitmapImage);
-            api.saveBitmapImage(detector_white.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area3_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                area3_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(area3_item_name.equals(entry.getKey()))
-                    {
-                        area3_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        } else {
-            Bitmap bitmapImage = matToBitmap(unDistortedImg3);
-
-            List<BoundingBox> boundingBoxes = detector_back.detect(bitmapImage);
-            api.saveBitmapImage(detector_back.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area3_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                area3_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(area3_item_name.equals(entry.getKey()))
-                    {
-                        area3_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        }
-
-        // AreaとItemの紐付け
-        // setAreaInfo(areaId,item_name,item_number)
-        api.setAreaInfo(3,area3_item_name,area3_item_num);
+        // 複数フレームを撮影して認識し、投票で結果を決める(最後の認識はバックグラウンドで行い、その間に次のエリアへ移動する)
+        Future<AreaItem> area3ItemReady = captureAndRecognizeArea(Area.AREA3, CameraMount.NAV_CAM, navCamModel);
 
         /**
          * point4に移動して画像認識するコード
          */
-        /**
-         * KOZ3の前まで行く
-         */
-
 
         // Flash Front light off
-        api.flashlightControlFront(0);
+        moveExecutor.flashlightFront("flashlightFrontOff", 0);
 
          // Flash light on
-        Result resultBackFlashLightOn = api.flashlightControlBack((float) 0.3);
-        int loopCounterBackFlashLight = 0;
-        while (!resultBackFlashLightOn.hasSucceeded() && loopCounterBackFlashLight < 5) {
-            // retry
-            resultBackFlashLightOn = api.flashlightControlBack((float) 0.3);
-            ++loopCounterBackFlashLight;
-        }
+        moveExecutor.flashlightBack("flashlightBackOn", (float) 0.3);
 
-        Point point1ToGoThroughKOZ3 = new Point(10.64, -7.375, 4.71);
-        // x軸正方向を軸として、90度回転
-        // Dockカメラで撮る！！
-        Quaternion quaternionInFrontOfArea4 = QuaternionUtil.rotate(1, 0, 0, (float) ((0.5) * Math.PI));
-        Result result1MoveToKOZ3 = api.moveTo(point1ToGoThroughKOZ3, quaternionInFrontOfArea4, true);
-
-        int loopCounter1KOZ3 = 0;
-        while (!result1MoveToKOZ3.hasSucceeded() && loopCounter1KOZ3 < 5) {
-            // retry
-            result1MoveToKOZ3 = api.moveTo(point1ToGoThroughKOZ3, quaternionInFrontOfArea4, true);
-            ++loopCounter1KOZ3;
-        }
-
-        Log.i(TAG, "InFrontOfKOZ3!!!!");
+        // Dockカメラで撮る！！ DockCamをArea4に向ける(視野: x軸負方向)
+        Quaternion quaternionInFrontOfArea4 = viewOrientations.get("pointInFrontOfArea4");
 
         /**
-         * Area4に移動する
+         * KOZ3を通過し、Area4に移動する
          */
-        // Area4の(0.699 + 0.1061)m手前
-        Point pointInFrontOfArea4 = new Point((9.866984 + 0.699 + 0.1061), (-6.9875 + 0.054), (4.945 + 0.0064));
-        Result resultMoveToArea4 = api.moveTo(pointInFrontOfArea4, quaternionInFrontOfArea4, true);
-
-        int loopCounterArea4 = 0;
-        while (!resultMoveToArea4.hasSucceeded() && loopCounterArea4 < 5) {
-            // retry
-            resultMoveToArea4 = api.moveTo(pointInFrontOfArea4, quaternionInFrontOfArea4, true);
-            ++loopCounterArea4;
-        }
+        moveAlong("pointInFrontOfArea4", pointInFrontOfArea4, quaternionInFrontOfArea4);
 
         Log.i(TAG, "InFrontOfArea4!!!!");
 
-        Mat image4 = api.getMatDockCam();
-
-        // TODO image4がnullの場合の対処を書く
-
-        api.saveMatImage(image4, "area4.png");
 
         /* *********************************************************************** */
         /* 各エリアにあるアイテムの種類と数を認識するコード */
         /* *********************************************************************** */
 
-        // ARタグを検知する
-        Dictionary dictionary4 = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
-        List<Mat> corners4 = new ArrayList<>();
-        Mat markerIds4 = new Mat();
-        Aruco.detectMarkers(image4, dictionary4, corners4, markerIds4);
-
-        // カメラ行列の取得
-        Mat cameraMatrix4 = new Mat(3, 3, CvType.CV_64F);
-        cameraMatrix4.put(0, 0, api.getNavCamIntrinsics()[0]);
-        // 歪み係数の取得
-        Mat cameraCoefficients4 = new Mat(1, 5, CvType.CV_64F);
-        cameraCoefficients4.put(0, 0, api.getNavCamIntrinsics()[1]);
-        cameraCoefficients4.convertTo(cameraCoefficients4, CvType.CV_64F);
-
-        // 歪みのないimage
-        Mat unDistortedImg4 = new Mat();
-        Calib3d.undistort(image4, unDistortedImg4, cameraMatrix4, cameraCoefficients4);
-
-        api.saveMatImage(unDistortedImg4, "unDistortedImgOfArea4.png");
-
-        // 台紙切り抜き
-        Mat clippedImg4 = ImageUtil.clipAR(unDistortedImg4);
-        if (clippedImg4 != null && !clippedImg4.empty()) {
-            api.saveMatImage(clippedImg4, "clippedImg4.png");
-        } else {
-            Log.i(TAG, "clippedImg4 = null or empty");
-        }
-
-        String area4_item_name = "beaker";
-        int area4_item_num = 3;
-
-        if (clippedImg4 != null) {
-            Bitmap bitmapImage = matToBitmap(clippedImg4);
-
-            List<BoundingBox> boundingBoxes = detector_white.detect(bitmapImage);
-            api.saveBitmapImage(detector_white.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area4_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                area4_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(area4_item_name.equals(entry.getKey()))
-                    {
-                        area4_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        } else {
-            Bitmap bitmapImage = matToBitmap(unDistortedImg4);
-
-            List<BoundingBox> boundingBoxes = detector_back.detect(bitmapImage);
-            api.saveBitmapImage(detector_back.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area4_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                area4_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(area4_item_name.equals(entry.getKey()))
-                    {
-                        area4_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        }
-        // AreaとItemの紐付け
-        // setAreaInfo(areaId,item_name,item_number)
-        api.setAreaInfo(4,area4_item_name,area4_item_num);
+        // 複数フレームを撮影して認識し、投票で結果を決める(最後の認識はバックグラウンドで行い、その間に次のエリアへ移動する)
+        Future<AreaItem> area4ItemReady = captureAndRecognizeArea(Area.AREA4, CameraMount.DOCK_CAM, dockCamModel);
 
         // ARタグからカメラまでの距離と傾きを求めて、
         // 撮影した画像での座標に変換して画像用紙の部分だけを切り抜く
@@ -631,20 +315,28 @@ public class YourService extends KiboRpcService {
          */
 
         // Flash Back light off
-        api.flashlightControlBack(0);
-
-        Point pointInFrontOfAstronaut = new Point(11.143, -6.7607, 4.9654);
-        // z軸正方向を軸として、90度回転
-        // 視野: y軸正方向へ変わる
-        Quaternion quaternionInFrontOfAstronaut = QuaternionUtil.rotate(0, 0, 1, (float) (0.5 * Math.PI));
-        Result resultMoveToAstronaut = api.moveTo(pointInFrontOfAstronaut, quaternionInFrontOfAstronaut, true);
-
-        int loopCounterAstronaut = 0;
-        while (!resultMoveToAstronaut.hasSucceeded() && loopCounterAstronaut < 5) {
-            // retry
-            resultMoveToAstronaut = api.moveTo(pointInFrontOfAstronaut, quaternionInFrontOfAstronaut, true);
-            ++loopCounterAstronaut;
-        }
+        moveExecutor.flashlightBack("flashlightBackOff", 0);
+
+        // NavCamを宇宙飛行士に向ける(Area4を撮影した姿勢から最小の回転で求めた姿勢. 視野はほぼy軸正方向)
+        Quaternion quaternionInFrontOfAstronaut = viewOrientations.get("pointInFrontOfAstronaut");
+        moveAlong("pointInFrontOfAstronaut", pointInFrontOfAstronaut, quaternionInFrontOfAstronaut);
+
+        beginPhase(MissionClock.Phase.VISION);
+
+        // 各エリアの画像認識の結果を待ち、AreaとItemを紐付ける
+        // setAreaInfo(areaId,item_name,item_number)
+        AreaItem area1_item = awaitAreaItem(area1ItemReady);
+        AreaItem area2_item = awaitAreaItem(area2ItemReady);
+        AreaItem area3_item = awaitAreaItem(area3ItemReady);
+        AreaItem area4_item = awaitAreaItem(area4ItemReady);
+        String area1_item_name = area1_item.getName();
+        String area2_item_name = area2_item.getName();
+        String area3_item_name = area3_item.getName();
+        String area4_item_name = area4_item.getName();
+        api.setAreaInfo(1, area1_item_name, area1_item.getNum());
+        api.setAreaInfo(2, area2_item_name, area2_item.getNum());
+        api.setAreaInfo(3, area3_item_name, area3_item.getNum());
+        api.setAreaInfo(4, area4_item_name, area4_item.getNum());
 
         // 宇宙飛行士の前にたどり着いたことを通知、画像を取得
         api.reportRoundingCompletion();
@@ -655,95 +347,26 @@ public class YourService extends KiboRpcService {
 
         // imageAstronautがnullの場合の対処を書く
 
-        api.saveMatImage(imageAstronaut, "astronaut.png");
+        imageSink.save(imageAstronaut, "astronaut.png");
 
-        // ARタグを検知する
-        Dictionary dictionaryAstronaut = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
-        List<Mat> cornersAstronaut = new ArrayList<>();
-        Mat markerIdsAstronaut = new Mat();
-        Aruco.detectMarkers(imageAstronaut, dictionaryAstronaut, cornersAstronaut, markerIdsAstronaut);
+        // ARタグを検知する(見つかるまで撮り直す)
+        List<Mat> cornersAstronaut = markerDetector.detect(imageAstronaut);
 
         int loopCounterAstronautImage = 0;
-        while (markerIdsAstronaut.empty() && loopCounterAstronautImage < 10) {
+        while (cornersAstronaut.isEmpty() && loopCounterAstronautImage < missionClock.retries(ASTRONAUT_IMAGE_LOOP_MAX)) {
             imageAstronaut = api.getMatNavCam();
-            api.saveMatImage(imageAstronaut, "astronaut.png");
-            dictionaryAstronaut = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
-            cornersAstronaut = new ArrayList<>();
-            markerIdsAstronaut = new Mat();
-            Aruco.detectMarkers(imageAstronaut, dictionaryAstronaut, cornersAstronaut, markerIdsAstronaut);
+            imageSink.save(imageAstronaut, "astronaut.png");
+            cornersAstronaut = markerDetector.detect(imageAstronaut);
             loopCounterAstronautImage++;
         }
 
-        // カメラ行列の取得
-        Mat cameraMatrixAstronaut = new Mat(3, 3, CvType.CV_64F);
-        cameraMatrixAstronaut.put(0, 0, api.getNavCamIntrinsics()[0]);
-        // 歪み係数の取得
-        Mat cameraCoefficientsAstronaut = new Mat(1, 5, CvType.CV_64F);
-        cameraCoefficientsAstronaut.put(0, 0, api.getNavCamIntrinsics()[1]);
-        cameraCoefficientsAstronaut.convertTo(cameraCoefficientsAstronaut, CvType.CV_64F);
-
-        // 歪みのないimage
-        Mat unDistortedImgAstronaut = new Mat();
-        Calib3d.undistort(imageAstronaut, unDistortedImgAstronaut, cameraMatrixAstronaut, cameraCoefficientsAstronaut);
-
-        api.saveMatImage(unDistortedImgAstronaut, "unDistortedImgOfAreaAstronaut.png");
-
-        // 台紙切り抜き
-        Mat clippedImgAstronaut = ImageUtil.clipAR(unDistortedImgAstronaut);
-        if (clippedImgAstronaut != null && !clippedImgAstronaut.empty()) {
-            api.saveMatImage(clippedImgAstronaut, "clippedImgAstronaut.png");
-        } else {
-            Log.i(TAG, "clippedImgAstronaut = null or empty");
-        }
-
         int targetItemID;
         targetItemID = 1;
 
-
-        String astronaut_item_name = "beaker";
-        int astronaut_item_num = 3;
-
-        if (clippedImgAstronaut != null) {
-            Bitmap bitmapImage = matToBitmap(clippedImgAstronaut);
-
-            List<BoundingBox> boundingBoxes = detector_white.detect(bitmapImage);
-            api.saveBitmapImage(detector_white.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area5_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                astronaut_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(astronaut_item_name.equals(entry.getKey()))
-                    {
-                        astronaut_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        } else {
-            Bitmap bitmapImage = matToBitmap(unDistortedImgAstronaut);
-
-            List<BoundingBox> boundingBoxes = detector_back.detect(bitmapImage);
-            api.saveBitmapImage(detector_back.drawBoundingBoxesOnBitmap(bitmapImage,boundingBoxes),"area5_boxes.png");
-
-            if (boundingBoxes != null) {
-                // 検出結果の名前と個数を表示
-                Map<String, Integer> detectionResults = processDetectionResult(boundingBoxes);
-                astronaut_item_name = getMaxCnfItemname(boundingBoxes);
-                for (Map.Entry<String, Integer> entry : detectionResults.entrySet()) {
-                    Log.i(TAG, "Detected object: " + entry.getKey() + " with count: " + entry.getValue());
-                    if(astronaut_item_name.equals(entry.getKey()))
-                    {
-                        astronaut_item_num = entry.getValue();
-                    }
-                }
-            } else {
-                Log.i(TAG, "No objects detected");
-            }
-        }
+        // 宇宙飛行士の画像もエリアと同じワーカーで認識する(Detectorは複数スレッドから同時に使えないため)
+        AreaItem astronaut_item = awaitAreaItem(visionPipeline.submit("astronaut", recognizeAreaTask(5, imageAstronaut, navCamModel, cornersAstronaut, null)));
+        String astronaut_item_name = astronaut_item.getName();
+        int astronaut_item_num = astronaut_item.getNum();
 
 
         if (astronaut_item_name.equals(area1_item_name)) {
@@ -780,170 +403,42 @@ public class YourService extends KiboRpcService {
          * astronaut is looking for)
          */
 
-        if (targetItemID == 1)
-        {
-
-        /**
-         * KOZ3の前まで行く
-         */
-        // 得られた最短距離の座標に移動
-        Point point1ToGoThroughKOZ3WhenReturn = new Point(10.65, -7.375, 4.72);
-        Result result1MoveToKOZ3WhenReturn = api.moveTo(point1ToGoThroughKOZ3WhenReturn, quaternion1, true);
-
-        int loopCounter1KOZ3WhenReturn = 0;
-        while (!result1MoveToKOZ3WhenReturn.hasSucceeded() && loopCounter1KOZ3WhenReturn < 5) {
-            // retry
-            result1MoveToKOZ3WhenReturn = api.moveTo(point1ToGoThroughKOZ3WhenReturn, quaternion1, true);
-            ++loopCounter1KOZ3WhenReturn;
-        }
-
-        Log.i(TAG, "InFrontOfKOZ3WhenReturn!!!!");
-
-        /**
-         * KOZ2の前まで行く
-         */
-        // 得られた最短距離の座標に移動
-        Point point1ToGoThroughKOZ2WhenReturn = new Point(10.9, -8.475, 4.72);
-        Result result1MoveToKOZ2WhenReturn = api.moveTo(point1ToGoThroughKOZ2WhenReturn, quaternion1, true);
-
-        int loopCounter1KOZ2WhenReturn = 0;
-        while (!result1MoveToKOZ2WhenReturn.hasSucceeded() && loopCounter1KOZ2WhenReturn < 5) {
-            // retry
-            result1MoveToKOZ2WhenReturn = api.moveTo(point1ToGoThroughKOZ2WhenReturn, quaternion1, true);
-            ++loopCounter1KOZ2WhenReturn;
-        }
-
-        Log.i(TAG, "InFrontOfKOZ2WhenReturn!!!!");
-
-        /**
-         * KOZ1の前まで行く
-         */
-        // 得られた最短距離の座標に移動
-        Point point1ToGoThroughKOZ1WhenReturn = new Point(11.1, -9.475, 5.22);
-        Result result1MoveToKOZ1WhenReturn = api.moveTo(point1ToGoThroughKOZ1WhenReturn, quaternion1, true);
-
-        int loopCounter1KOZ1WhenReturn = 0;
-        while (!result1MoveToKOZ1WhenReturn.hasSucceeded() && loopCounter1KOZ1WhenReturn < 5) {
-            // retry
-            result1MoveToKOZ1WhenReturn = api.moveTo(point1ToGoThroughKOZ1WhenReturn, quaternion1, true);
-            ++loopCounter1KOZ1WhenReturn;
-        }
-
-        Log.i(TAG, "InFrontOfKOZ1WhenReturn!!!!");
-
-        /**
-         * Area1に移動する
-         */
-        resultMoveToArea1 = api.moveTo(area1FirstViewPoint, quaternion1, true);
-
-        int loopCounterArea1WhenReturn = 0;
-        while (!resultMoveToArea1.hasSucceeded() && loopCounterArea1WhenReturn < 5) {
-            // retry
-            resultMoveToArea1 = api.moveTo(area1FirstViewPoint, quaternion1, true);
-            ++loopCounterArea1WhenReturn;
-        }
-
-        Log.i(TAG, "InFrontOfArea1WhenReturn!!!!");
-    } else if (targetItemID == 2){
-        /**
-         * KOZ3の前まで行く
-         */
-        // 得られた最短距離の座標に移動
-        Point point1ToGoThroughKOZ3WhenReturn = new Point(11.1, -7.375, 5.22);
-        Result result1MoveToKOZ3WhenReturn = api.moveTo(point1ToGoThroughKOZ3WhenReturn, quaternion1, true);
-
-        int loopCounter1KOZ3WhenReturn = 0;
-        while (!result1MoveToKOZ3WhenReturn.hasSucceeded() && loopCounter1KOZ3WhenReturn < 5) {
-            // retry
-            result1MoveToKOZ3WhenReturn = api.moveTo(point1ToGoThroughKOZ3WhenReturn, quaternion1, true);
-            ++loopCounter1KOZ3WhenReturn;
-        }
-
-        Log.i(TAG, "InFrontOfKOZ3WhenReturn!!!!");
-
-        /**
-         * KOZ2の前まで行く
-         */
-        // 得られた最短距離の座標に移動
-        Point point1ToGoThroughKOZ2WhenReturn = new Point(10.9, -8.475, 4.72);
-        Result result1MoveToKOZ2WhenReturn = api.moveTo(point1ToGoThroughKOZ2WhenReturn, quaternionInFrontOfArea2, true);
-
-        int loopCounter1KOZ2WhenReturn = 0;
-        while (!result1MoveToKOZ2WhenReturn.hasSucceeded() && loopCounter1KOZ2WhenReturn < 5) {
-            // retry
-            result1MoveToKOZ2WhenReturn = api.moveTo(point1ToGoThroughKOZ2WhenReturn, quaternionInFrontOfArea2, true);
-            ++loopCounter1KOZ2WhenReturn;
-        }
-
-        Log.i(TAG, "InFrontOfKOZ2WhenReturn!!!!");
-
-        /**
-         * Area2に移動する
-         */
-        resultMoveToArea2 = api.moveTo(pointInFrontOfArea2, quaternionInFrontOfArea2, true);
-
-        int loopCounterArea2WhenReturn = 0;
-        while (!resultMoveToArea2.hasSucceeded() && loopCounterArea2WhenReturn < 5) {
-            // retry
-            resultMoveToArea2 = api.moveTo(pointInFrontOfArea2, quaternionInFrontOfArea2, true);
-            ++loopCounterArea2WhenReturn;
-        }
-
-        Log.i(TAG, "InFrontOfArea2WhenReturn!!!!");
-    } else if (targetItemID == 3){
-        /**
-         * KOZ3の前まで行く
-         */
-        // 得られた最短距離の座標に移動
-        Point point1ToGoThroughKOZ3WhenReturn = new Point(10.65, -7.375, 4.67);
-        Result result1MoveToKOZ3WhenReturn = api.moveTo(point1ToGoThroughKOZ3WhenReturn, quaternionInFrontOfArea3, true);
-
-        int loopCounter1KOZ3WhenReturn = 0;
-        while (!result1MoveToKOZ3WhenReturn.hasSucceeded() && loopCounter1KOZ3WhenReturn < 5) {
-            // retry
-            result1MoveToKOZ3WhenReturn = api.moveTo(point1ToGoThroughKOZ3WhenReturn, quaternionInFrontOfArea3, true);
-            ++loopCounter1KOZ3WhenReturn;
-        }
-
-        Log.i(TAG, "InFrontOfKOZ3WhenReturn!!!!");
-
-        /**
-         * Area3に移動する
-         */
-        resultMoveToArea3 = api.moveTo(pointInFrontOfArea3, quaternionInFrontOfArea3, true);
-
-        int loopCounterArea3WhenReturn = 0;
-        while (!resultMoveToArea3.hasSucceeded() && loopCounterArea3WhenReturn < 5) {
-            // retry
-            resultMoveToArea3 = api.moveTo(pointInFrontOfArea3, quaternionInFrontOfArea3, true);
-            ++loopCounterArea3WhenReturn;
-        }
-
-        Log.i(TAG, "InFrontOfArea3WhenReturn!!!!");
-    } else if (targetItemID == 4){
-        /**
-         * Area4に移動する
-         */
-        resultMoveToArea4 = api.moveTo(pointInFrontOfArea4, quaternionInFrontOfArea4, true);
-
-        int loopCounterArea4WhenReturn = 0;
-        while (!resultMoveToArea4.hasSucceeded() && loopCounterArea4WhenReturn < 5) {
-            // retry
-            resultMoveToArea4 = api.moveTo(pointInFrontOfArea4, quaternionInFrontOfArea4, true);
-            ++loopCounterArea4WhenReturn;
+        beginPhase(MissionClock.Phase.RETURN);
+
+        if (!missionClock.hasTimeFor(MissionClock.Phase.RETURN)) {
+            // 帰りの移動が間に合わないので、その場でスナップショットを撮ってミッションを終える
+            Log.w(TAG, "No time left for the return leg: remaining " + missionClock.remaining() + "ms");
+        } else if (targetItemID == 1) {
+            // 経路計画で求めた経由点を通ってArea1に移動する
+            // 姿勢は宇宙飛行士の前の姿勢から最小の回転でカメラをエリアに向けたもの
+            moveAlong("area1FirstViewPoint", area1FirstViewPoint, returnOrientations.get("area1FirstViewPoint"));
+            Log.i(TAG, "InFrontOfArea1WhenReturn!!!!");
+        } else if (targetItemID == 2) {
+            moveAlong("pointInFrontOfArea2", pointInFrontOfArea2, returnOrientations.get("pointInFrontOfArea2"));
+            Log.i(TAG, "InFrontOfArea2WhenReturn!!!!");
+        } else if (targetItemID == 3) {
+            moveAlong("pointInFrontOfArea3", pointInFrontOfArea3, returnOrientations.get("pointInFrontOfArea3"));
+            Log.i(TAG, "InFrontOfArea3WhenReturn!!!!");
+        } else if (targetItemID == 4) {
+            moveAlong("pointInFrontOfArea4", pointInFrontOfArea4, returnOrientations.get("pointInFrontOfArea4"));
+            Log.i(TAG, "InFrontOfArea4WhenReturn!!!!");
         }
 
-        Log.i(TAG, "InFrontOfArea4WhenReturn!!!!");
-    }
-
         Mat imageAfterReturn = api.getMatNavCam();
-        api.saveMatImage(imageAfterReturn, "afterReturn.png");
+        imageSink.save(imageAfterReturn, "afterReturn.png");
 
         /*
          * *****************************************************************************
          * **************************
          */
 
+        visionPipeline.shutdown();
+        decodeExecutor.shutdown();
+        // 移動先ごとにかかった時間と再試行の回数を出力する
+        moveExecutor.getMetrics().log(TAG);
+        // 保存しきれていない画像を書き出す(時間の上限を超えた分は捨てる)
+        imageSink.close(IMAGE_SINK_FLUSH_TIMEOUT);
+
         // Take a snapshot of the target item.→ミッション終了
         api.takeTargetItemSnapshot();
 
@@ -971,46 +466,354 @@ public class YourService extends KiboRpcService {
         return bitmap;
     }
 
-    // Bitmap型をMat型に変換するメソッド
-    private static Mat bitmapToMat(Bitmap bitmap) {
-        Mat mat = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
-        Utils.bitmapToMat(bitmap, mat);
-        return mat;
+    // エリアの画像を認識するタスク(VisionPipelineのワーカーで実行する)
+    private Callable<AreaItem> recognizeAreaTask(final int areaId, final Mat image, final CameraModel cameraModel, final List<Mat> corners, final Rect roi) {
+        return new Callable<AreaItem>() {
+            @Override
+            public AreaItem call() {
+                return recognizeArea(areaId, image, cameraModel, corners, roi);
+            }
+        };
+    }
+
+    // エリアの画像を歪み補正し、台紙を切り抜いてアイテムを認識する
+    // cameraModelには画像を撮影したカメラのものを渡す
+    // cornersには、この画像でARタグを検知済みならその結果を渡す(nullならここで検知する)
+    // roiには台紙が写ると予測した範囲を渡す. ARタグの検知と検出はまずこの範囲で行う(nullなら画像全体)
+    private AreaItem recognizeArea(int areaId, Mat image, CameraModel cameraModel, List<Mat> corners, Rect roi) {
+        StageTimer timer = new StageTimer(TAG, "area" + areaId);
+
+        // ARタグを検知する(歪み補正前の画像で、1フレームにつき1回だけ)
+        if (corners == null) {
+            corners = markerDetector.detect(image, roi);
+            timer.lap("aruco");
+        }
+
+        Mat clippedImg = null;
+        Mat unDistortedImg = null;
+        if (!corners.isEmpty()) {
+            // ARタグの角だけを歪み補正し、歪み補正と切り抜きを検出器の入力サイズへの1回の変換で行う
+            clippedImg = ImageUtil.clipUndistorted(image, corners.get(0), cameraModel, detector_white.getInputSize());
+            timer.lap("clip");
+        } else {
+            // 歪みのないimage(変換テーブルは作成済みなのでremapだけ)
+            unDistortedImg = cameraModel.undistort(image);
+            timer.lap("undistort");
+
+            imageSink.saveDebug(unDistortedImg, "unDistortedImgOfArea" + areaId + ".png");
+        }
+        if (clippedImg != null && !clippedImg.empty()) {
+            imageSink.saveDebug(clippedImg, "clippedImg" + areaId + ".png");
+        } else {
+            Log.i(TAG, "clippedImg" + areaId + " = null or empty");
+        }
+
+        // 台紙を切り抜けた場合は白背景用、切り抜けなかった場合は画像全体用のモデルを使う
+        AreaItem item = null;
+        if (clippedImg != null) {
+            item = recognizeItem(detector_white, clippedImg, "area" + areaId + "_boxes.png");
+        } else {
+            // 予測した範囲で先に検出し、何も検出できなければ画像全体で検出する
+            // roiは歪み補正前の画像での範囲だが、余白を取っているので歪み補正後の画像にもそのまま使う
+            if (roi != null) {
+                Mat roiImg = unDistortedImg.submat(roi);
+                DetectionResult roiResult = tiled_detector_back.detect(roiImg);
+                if (!roiResult.isEmpty()) {
+                    item = summarizeDetectionResult(detector_back, roiImg, roiResult, "area" + areaId + "_boxes.png");
+                }
+            }
+            if (item == null) {
+                item = recognizeItemTiled(tiled_detector_back, unDistortedImg, "area" + areaId + "_boxes.png");
+            }
+        }
+        timer.lap("detect");
+        timer.total();
+        return item;
+    }
+
+    // 経路表または経路計画で求めた経由点を通ってpointに移動する
+    // 経由点は減らしてあり、通過するだけなので近くにいれば次へ進む. 止まって撮影するのはpointだけ
+    // 経由点の姿勢は今の姿勢からorientationへ補間して、移動しながら少しずつ回す
+    // pointへ再試行しても移動できなければ、今の位置から経路を求め直して移動する
+    // nameは経路表の地点の名前と同じにする
+    private void moveAlong(String name, Point point, Quaternion orientation) {
+        List<Point> route = lookupRoute(name);
+        if (route == null) {
+            route = planRoute(point);
+        }
+        moveExecutor.moveAlong(name, route, currentOrientation(), orientation, passThroughPolicy, replanFromCurrentPosition);
+        lastTarget = point;
+        lastTargetName = name;
+        lastOrientation = orientation;
+    }
+
+    // 各エリアの前の撮影する位置と姿勢を求めてpointsとorientationsに入れる
+    // 台紙の法線上にカメラを置き、台紙がsheetPixelsの大きさで写る距離から位置を求める
+    // ロボットがKIZの外やKOZの中に入る場合、台紙が画像からはみ出す場合は距離を変えて探し、それでも求まらなければ手で決めた位置を使う
+    // 位置は姿勢によって変わる(カメラの取り付け位置のずれの向きが変わる)ので、姿勢は撮影する順に引き継いで位置と組で求め、
+    // 移動するときもここで求めた姿勢を使う
+    // 宇宙飛行士の前の姿勢と、そこから戻って各エリアを撮影する姿勢(returnOrientations)は、直前の姿勢から最小の回転でカメラを向けて求める
+    private void solveViewPoints(Size sheetPixels, Map<String, Point> points, Map<String, Quaternion> orientations,
+                                 Map<String, Quaternion> returnOrientations) {
+        ViewpointSolver solver = new ViewpointSolver(ROBOT_RADIUS, KIZ_MARGIN);
+        Quat attitude = new Quat().set(EXPECTED_START_ORIENTATION);
+
+        // Area1の(0.525 + 0.1177)m手前
+        solveViewPoint(solver, "area1FirstViewPoint", Area.AREA1, CameraMount.NAV_CAM, navCamModel, sheetPixels, attitude,
+                new Point((10.95 + 0.0422), (-10.58 + 0.525 + 0.1177), (5.195 + 0.0826)), points, orientations);
+
+        // Area2の(0.646 + 0.1177)m手前
+        solveViewPoint(solver, "pointInFrontOfArea2", Area.AREA2, CameraMount.NAV_CAM, navCamModel, sheetPixels, attitude,
+                new Point((10.925 - 0.0422), (-8.875 + 0.0826), (3.76203 + 0.646 + 0.1177)), points, orientations);
+
+        // Area3の(0.699 + 0.1177)m手前
+        solveViewPoint(solver, "pointInFrontOfArea3", Area.AREA3, CameraMount.NAV_CAM, navCamModel, sheetPixels, attitude,
+                new Point((10.925 - 0.0422), (-7.925 + 0.0826), (3.76203 + 0.699 + 0.1177)), points, orientations);
+
+        // Area4の(0.699 + 0.1061)m手前. DockCamで撮る
+        solveViewPoint(solver, "pointInFrontOfArea4", Area.AREA4, CameraMount.DOCK_CAM, dockCamModel, sheetPixels, attitude,
+                new Point((9.866984 + 0.699 + 0.1061), (-6.9875 + 0.054), (4.945 + 0.0064)), points, orientations);
+
+        // 宇宙飛行士の前. NavCamを宇宙飛行士に向ける
+        Point astronautViewPoint = new Point(11.143, -6.7607, 4.9654);
+        LookAtSolver.solve(astronautViewPoint.getX(), astronautViewPoint.getY(), astronautViewPoint.getZ(), CameraMount.NAV_CAM,
+                ASTRONAUT_POSITION.getX(), ASTRONAUT_POSITION.getY(), ASTRONAUT_POSITION.getZ(), attitude);
+        points.put("pointInFrontOfAstronaut", astronautViewPoint);
+        orientations.put("pointInFrontOfAstronaut", attitude.toQuaternion());
+        Log.i(TAG, "Viewpoint for astronaut: " + astronautViewPoint + ", " + attitude);
+
+        // 戻るときは宇宙飛行士の前の姿勢から、行きと同じカメラを各エリアに向ける
+        solveReturnOrientation("area1FirstViewPoint", Area.AREA1, CameraMount.NAV_CAM, attitude, points, returnOrientations);
+        solveReturnOrientation("pointInFrontOfArea2", Area.AREA2, CameraMount.NAV_CAM, attitude, points, returnOrientations);
+        solveReturnOrientation("pointInFrontOfArea3", Area.AREA3, CameraMount.NAV_CAM, attitude, points, returnOrientations);
+        solveReturnOrientation("pointInFrontOfArea4", Area.AREA4, CameraMount.DOCK_CAM, attitude, points, returnOrientations);
+    }
+
+    // 宇宙飛行士の前の姿勢(astronautAttitude)から最小の回転で、撮影する位置からカメラをエリアに向ける姿勢を求める
+    private void solveReturnOrientation(String name, Area area, CameraMount mount, Quat astronautAttitude,
+                                        Map<String, Point> points, Map<String, Quaternion> returnOrientations) {
+        Point viewPoint = points.get(name);
+        Quat attitude = new Quat().set(astronautAttitude);
+        LookAtSolver.solve(viewPoint.getX(), viewPoint.getY(), viewPoint.getZ(), mount, area.getX(), area.getY(), area.getZ(), attitude);
+        returnOrientations.put(name, attitude.toQuaternion());
+    }
+
+    // 1つのエリアを撮影する位置と姿勢を求める. 位置が求まらなければfallbackを使い、姿勢はそこからカメラをエリアに向けて求める
+    private void solveViewPoint(ViewpointSolver solver, String name, Area area, CameraMount mount, CameraModel cameraModel, Size sheetPixels,
+                                Quat attitude, Point fallback, Map<String, Point> points, Map<String, Quaternion> orientations) {
+        Point viewPoint = solver.solve(area, mount, cameraModel, CAMERA_IMAGE_SIZE, sheetPixels, attitude);
+        if (viewPoint == null) {
+            Log.w(TAG, "No viewpoint found for area" + area.getId() + ", using " + fallback);
+            viewPoint = fallback;
+            LookAtSolver.solve(fallback.getX(), fallback.getY(), fallback.getZ(), mount, area.getX(), area.getY(), area.getZ(), attitude);
+        }
+        Quaternion orientation = attitude.toQuaternion();
+        Log.i(TAG, "Viewpoint for area" + area.getId() + ": " + viewPoint + ", " + orientation);
+        points.put(name, viewPoint);
+        orientations.put(name, orientation);
+    }
+
+    // 最後に指示した姿勢. まだ移動していなければロボットの今の姿勢
+    private Quaternion currentOrientation() {
+        if (lastOrientation != null) {
+            return lastOrientation;
+        }
+        Kinematics kinematics = api.getRobotKinematics();
+        return (kinematics == null) ? null : kinematics.getOrientation();
     }
 
-    //アセットから画像を読み込む
-    private Bitmap loadImageFromAssets(String fileName) {
-        try (InputStream inputStream = getApplicationContext().getAssets().open(fileName)) {
-            return BitmapFactory.decodeStream(inputStream);
-        } catch (IOException e) {
-            Log.e(TAG, "Error loading image from assets: " + fileName, e);
+    // 最後の目的地からnameまでの経路を経路表から引く
+    // 表にない場合や、ロボットが最後の目的地から離れている場合はnull
+    private List<Point> lookupRoute(String name) {
+        if (lastTargetName == null) {
+            return null;
+        }
+        List<Point> route = routeTable.get(lastTargetName, name);
+        if (route == null) {
             return null;
         }
+        Kinematics kinematics = api.getRobotKinematics();
+        if (kinematics == null || kinematics.getPosition() == null
+                || calculateDistance(kinematics.getPosition().toArray(), lastTarget.toArray()) > ROUTE_TABLE_TOLERANCE) {
+            return null;
+        }
+        return route;
+    }
+
+    // 現在の位置からgoalまでの経路を求める
+    // 現在の位置から求まらなければ最後の目的地から求め、それでも求まらなければ直接移動する
+    private List<Point> planRoute(Point goal) {
+        Kinematics kinematics = api.getRobotKinematics();
+        List<Point> route = null;
+        if (kinematics != null && kinematics.getPosition() != null) {
+            route = pathPlanner.plan(kinematics.getPosition(), goal);
+        }
+        if (route == null && lastTarget != null) {
+            route = pathPlanner.plan(lastTarget, goal);
+        }
+        if (route == null) {
+            Log.w(TAG, "No route found, moving directly to " + goal);
+            route = Collections.singletonList(goal);
+        }
+        return route;
+    }
+
+    // カメラで画像を撮影する
+    private Mat captureImage(CameraMount mount) {
+        return (mount == CameraMount.DOCK_CAM) ? api.getMatDockCam() : api.getMatNavCam();
+    }
+
+    // エリアを複数フレーム撮影して認識し、確信度で重み付けした投票で結果を決める
+    // 前のフレームの結果で投票が安定しうる場合は結果を待ってから撮影し、そうでなければ認識と並行して撮影する
+    // 投票が安定するか、時間の上限を超えたら撮影をやめる. フレーム数と時間の上限は残り時間に応じて決める
+    private Future<AreaItem> captureAndRecognizeArea(Area area, CameraMount mount, CameraModel cameraModel) {
+        beginPhase(MissionClock.Phase.CAPTURE);
+        final int areaId = area.getId();
+        final ItemVoter voter = new ItemVoter(VOTE_STABLE_FRAMES);
+        int maxFrames = missionClock.frames(MAX_FRAMES_PER_AREA);
+        long deadline = System.currentTimeMillis() + missionClock.budget(MissionClock.Phase.CAPTURE);
+
+        Mat image = captureImage(mount);
+        imageSink.save(image, "area" + areaId + ".png");
+        Future<AreaItem> pending = visionPipeline.submit("area" + areaId,
+                recognizeAreaTask(areaId, image, cameraModel, null, predictSheetRoi(area, mount, cameraModel)));
+
+        for (int k = 1; k < maxFrames; k++) {
+            if (deadline - System.currentTimeMillis() <= 0) {
+                break;
+            }
+            // 前のフレームの結果で安定することがなければ次のフレームは必ず必要なので、認識と並行して撮影する
+            Mat nextImage = null;
+            Rect nextRoi = null;
+            if (!voter.canBecomeStable(1)) {
+                nextImage = captureImage(mount);
+                nextRoi = predictSheetRoi(area, mount, cameraModel);
+                if (nextImage == null) {
+                    break;
+                }
+            }
+
+            // 前のフレームの結果を投票する
+            try {
+                voter.add(pending.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+                pending = null;
+            } catch (TimeoutException e) {
+                Log.w(TAG, "area" + areaId + ": capture budget exceeded after " + k + " frames");
+                break;
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, "area" + areaId + ": recognition failed", e);
+                pending = null;
+            }
+            // 安定したか時間の上限を超えたら、次のフレームは撮影しない
+            if (voter.isStable() || deadline - System.currentTimeMillis() <= 0) {
+                break;
+            }
+            if (nextImage == null) {
+                nextImage = captureImage(mount);
+                nextRoi = predictSheetRoi(area, mount, cameraModel);
+                if (nextImage == null) {
+                    break;
+                }
+            }
+
+            imageSink.saveDebug(nextImage, "area" + areaId + "_" + k + ".png");
+            pending = visionPipeline.submit("area" + areaId + "_" + k,
+                    recognizeAreaTask(areaId, nextImage, cameraModel, null, nextRoi));
+        }
+
+        // 最後に投入したフレームの結果を待ってから投票の結果を返す(ワーカーは1つなので、このタスクの前に終わっている)
+        final Future<AreaItem> lastFrame = pending;
+        beginPhase(MissionClock.Phase.MOVE);
+        return visionPipeline.submit("area" + areaId + "_vote", new Callable<AreaItem>() {
+            @Override
+            public AreaItem call() throws InterruptedException {
+                if (lastFrame != null) {
+                    try {
+                        voter.add(lastFrame.get());
+                    } catch (ExecutionException e) {
+                        Log.e(TAG, "area" + areaId + ": recognition failed", e);
+                    }
+                }
+                AreaItem result = voter.getResult();
+                Log.i(TAG, "area" + areaId + ": voted " + result + " from " + voter.getNumFrames() + " frames");
+                return result;
+            }
+        });
+    }
+
+    // 撮影したときのロボットの姿勢から、台紙が写る範囲を予測する(予測できなければnull)
+    private Rect predictSheetRoi(Area area, CameraMount mount, CameraModel cameraModel) {
+        Rect roi = RoiPredictor.predict(api.getRobotKinematics(), mount, cameraModel, area, CAMERA_IMAGE_SIZE, ROI_MARGIN_RATIO);
+        Log.i(TAG, "Predicted ROI of area" + area.getId() + ": " + roi);
+        return roi;
+    }
+
+    // ミッションの段階を切り替え、残り時間に応じてデバッグ画像の保存を止める
+    private void beginPhase(MissionClock.Phase phase) {
+        missionClock.beginPhase(phase);
+        imageSink.setDebugEnabled(missionClock.allowDebugSaves());
     }
 
-    // バウンディングボックスから情報を表示し、名前と個数を返す
-    private Map<String, Integer> processDetectionResult(List<BoundingBox> boundingBoxes) {
-        Map<String, Integer> resultMap = new HashMap<>();
-        for (BoundingBox box : boundingBoxes) {
-            Log.i(TAG, "Detected object: " + box.getClsName() + " with confidence " + box.getCnf());
-            resultMap.put(box.getClsName(), resultMap.getOrDefault(box.getClsName(), 0) + 1);
+    // 画像認識の結果を待つ. 失敗した場合や、残り時間に応じた時間内に終わらなかった場合は("beaker", 3)を返す
+    // 余裕がなくても、ミッション終了の処理に間に合う範囲で少しは待つ(あと少しで終わる結果を捨てない)
+    private AreaItem awaitAreaItem(Future<AreaItem> itemReady) {
+        try {
+            return itemReady.get(missionClock.waitBudget(MissionClock.Phase.VISION), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Recognition timed out: remaining " + missionClock.remaining() + "ms");
+            return new AreaItem("beaker", 3);
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(TAG, "Recognition failed", e);
+            return new AreaItem("beaker", 3);
         }
-        return resultMap;
     }
 
-    private String getMaxCnfItemname(List<BoundingBox> boundingBoxes)
-    {
-        String max_cnf_item_name = "";
-        float max_cnf = 0;
+    // 画像からアイテムを検出し、最も確信度の高いアイテムの名前とその個数を返す
+    // 何も検出できなかった場合は("beaker", 3)を返す
+    private AreaItem recognizeItem(Detector detector, Mat image, String boxesFileName) {
+        return summarizeDetectionResult(detector, image, detector.detect(image), boxesFileName);
+    }
+
+    // 画像全体をタイルに分けてアイテムを検出する
+    private AreaItem recognizeItemTiled(TiledDetector tiledDetector, Mat image, String boxesFileName) {
+        return summarizeDetectionResult(tiledDetector.getDetector(), image, tiledDetector.detect(image), boxesFileName);
+    }
+
+    // 検出結果を保存・表示し、最も確信度の高いアイテムの名前とその個数を返す
+    private AreaItem summarizeDetectionResult(Detector detector, Mat image, DetectionResult detectionResult, String boxesFileName) {
+        String itemName = "beaker";
+        int itemNum = 3;
+        float confidence = 0;
+
+        // 保存しない場合は描画も省く
+        if (imageSink.isDebugEnabled()) {
+            imageSink.saveDebug(detector.drawBoundingBoxesOnBitmap(matToBitmap(image), detectionResult), boxesFileName);
+        }
+
+        if (detectionResult != null && !detectionResult.isEmpty()) {
+            // 検出結果の名前と個数を表示
+            processDetectionResult(detectionResult);
+            // 最も確信度の高いアイテムの個数はデコード時に数えたヒストグラムから取る
+            int maxIndex = detectionResult.getMaxScoreIndex();
+            itemName = detectionResult.getClassName(maxIndex);
+            itemNum = detectionResult.getClassCount(detectionResult.getClassId(maxIndex));
+            confidence = detectionResult.getScore(maxIndex);
+        } else {
+            Log.i(TAG, "No objects detected");
+        }
+        return new AreaItem(itemName, itemNum, confidence);
+    }
 
-        for (BoundingBox box : boundingBoxes) {
-            if(max_cnf < box.getCnf())
-            {
-                max_cnf = box.getCnf();
-                max_cnf_item_name = box.getClsName();
+    // 検出結果の情報と、クラスごとの個数を表示する
+    private void processDetectionResult(DetectionResult detectionResult) {
+        for (int i = 0; i < detectionResult.size(); i++) {
+            Log.i(TAG, "Detected object: " + detectionResult.getClassName(i) + " with confidence " + detectionResult.getScore(i));
+        }
+        for (int cls = 0; cls < detectionResult.getNumClasses(); cls++) {
+            if (detectionResult.getClassCount(cls) > 0) {
+                Log.i(TAG, "Detected object: " + detectionResult.getLabel(cls) + " with count: " + detectionResult.getClassCount(cls));
             }
         }
-        return max_cnf_item_name;
     }
 
 
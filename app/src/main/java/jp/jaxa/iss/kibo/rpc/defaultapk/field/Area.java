@@ -0,0 +1,66 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.field;
+
+import gov.nasa.arc.astrobee.types.Point;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Axis;
+
+/**
+ * 各エリアの台紙の位置と向き
+ * 中心は台紙の中心, 法線は台紙の表側(ロボットから見える側)を向く
+ */
+public enum Area {
+    AREA1(1, 10.95, -10.58, 5.195, Axis.YP),
+    AREA2(2, 10.925, -8.875, 3.76203, Axis.ZP),
+    AREA3(3, 10.925, -7.925, 3.76203, Axis.ZP),
+    AREA4(4, 9.866984, -6.9875, 4.945, Axis.XP);
+
+    // 台紙の中心から端までの距離[m] (台紙とARタグが収まる正方形の半分の大きさ)
+    public static final double SHEET_HALF_SIZE = 0.2;
+
+    private final int id;
+    private final double x, y, z;
+    private final Axis normal;
+
+    Area(int id, double x, double y, double z, Axis normal) {
+        this.id = id;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.normal = normal;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    public Point getCenter() {
+        return new Point(x, y, z);
+    }
+
+    public Axis getNormal() {
+        return normal;
+    }
+
+    /**
+     * エリアの番号(1〜4)からエリアを返します
+     */
+    public static Area fromId(int id) {
+        for (Area area : values()) {
+            if (area.id == id) {
+                return area;
+            }
+        }
+        throw new IllegalArgumentException("Unknown area id: " + id);
+    }
+}
@@ -0,0 +1,25 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.field;
+
+/**
+ * KIZ(Keep In Zone)とKOZ(Keep Out Zone)の範囲
+ * 各箱は{xMin, yMin, zMin, xMax, yMax, zMax}で表す(余白なし)
+ */
+public final class KeepZones {
+    private KeepZones() {}
+
+    // ロボットの中心はKIZのどれかの中にいなければならない
+    public static final double[][] KIZ = {
+            {10.3, -10.2, 4.32, 11.55, -6.0, 5.57},   // KIZ1
+            {9.5, -10.5, 4.02, 10.5, -9.6, 4.8}       // KIZ2
+    };
+
+    // ロボットはKOZに入ってはいけない
+    public static final double[][] KOZ = {
+            {10.87, -9.5, 4.27, 11.6, -9.45, 4.97},   // KOZ1 Position1
+            {10.25, -9.5, 4.97, 10.87, -9.45, 5.62},  // KOZ1 Position2
+            {10.87, -8.5, 4.97, 11.6, -8.45, 5.62},   // KOZ2 Position1
+            {10.25, -8.5, 4.27, 10.7, -8.45, 4.97},   // KOZ2 Position2
+            {10.87, -7.4, 4.27, 11.6, -7.35, 4.97},   // KOZ3 Position1
+            {10.25, -7.4, 4.97, 10.87, -7.35, 5.62}   // KOZ3 Position2
+    };
+}
@@ -0,0 +1,163 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.image;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * カメラの内部パラメータと歪み補正用の変換テーブルを保持するクラス
+ * 内部パラメータは生成時に一度だけ受け取り、歪み補正のテーブルも一度だけ作るので、
+ * 各フレームの歪み補正はremapだけで済む
+ */
+public class CameraModel {
+    private final Mat cameraMatrix;        // カメラ行列
+    private final Mat distortionCoefficients; // 歪み係数
+    private final Mat map1 = new Mat();     // 歪み補正の変換テーブル
+    private final Mat map2 = new Mat();
+    private Size mapSize;                   // 変換テーブルを作った画像サイズ
+    private Mat rawMapX;                    // 歪み補正後の画像の各画素に対応する、歪み補正前の画像のx座標(CV_32FC1)
+    private Mat rawMapY;                    // 同じくy座標
+    private Size rawMapSize;                // rawMapX, rawMapYを作った画像サイズ
+
+    /**
+     * @param intrinsics api.getNavCamIntrinsics()またはapi.getDockCamIntrinsics()の戻り値
+     *                   [0]がカメラ行列(3x3), [1]が歪み係数(1x5)
+     * @param imageSize 変換テーブルを作っておく画像のサイズ
+     */
+    public CameraModel(double[][] intrinsics, Size imageSize) {
+        cameraMatrix = new Mat(3, 3, CvType.CV_64F);
+        cameraMatrix.put(0, 0, intrinsics[0]);
+        distortionCoefficients = new Mat(1, 5, CvType.CV_64F);
+        distortionCoefficients.put(0, 0, intrinsics[1]);
+        buildMaps(imageSize);
+    }
+
+    public Mat getCameraMatrix() {
+        return cameraMatrix;
+    }
+
+    public Mat getDistortionCoefficients() {
+        return distortionCoefficients;
+    }
+
+    /**
+     * x方向の焦点距離[px]を返します
+     */
+    public double getFocalLengthX() {
+        return cameraMatrix.get(0, 0)[0];
+    }
+
+    /**
+     * y方向の焦点距離[px]を返します
+     */
+    public double getFocalLengthY() {
+        return cameraMatrix.get(1, 1)[0];
+    }
+
+    /**
+     * 画像中心(光軸が通る点)のx座標[px]を返します
+     */
+    public double getPrincipalPointX() {
+        return cameraMatrix.get(0, 2)[0];
+    }
+
+    public double getPrincipalPointY() {
+        return cameraMatrix.get(1, 2)[0];
+    }
+
+    /**
+     * 画像の歪みを補正します (Calib3d.undistortと同じ結果になる)
+     * @param image カメラで撮影した画像
+     * @return 歪みを補正した画像
+     */
+    public Mat undistort(Mat image) {
+        synchronized (this) {
+            if (mapSize == null || mapSize.width != image.cols() || mapSize.height != image.rows()) {
+                buildMaps(image.size());
+            }
+        }
+        Mat undistorted = new Mat();
+        Imgproc.remap(image, undistorted, map1, map2, Imgproc.INTER_LINEAR);
+        return undistorted;
+    }
+
+    /**
+     * 歪み補正前の画像上の点を、歪み補正後の画像上の点に変換します
+     */
+    public Point[] undistortPoints(Point[] rawPoints) {
+        MatOfPoint2f undistortedPoints = new MatOfPoint2f();
+        Calib3d.undistortPoints(new MatOfPoint2f(rawPoints), undistortedPoints, cameraMatrix, distortionCoefficients, new Mat(), cameraMatrix);
+        return undistortedPoints.toArray();
+    }
+
+    /**
+     * カメラ座標系(x:画像の右, y:画像の下, z:光軸)の点を、歪み補正前の画像上の点に投影します
+     */
+    public Point projectPoint(double x, double y, double z) {
+        double[] k = new double[9];
+        cameraMatrix.get(0, 0, k);
+        double[] d = new double[5];
+        distortionCoefficients.get(0, 0, d);
+        x /= z;
+        y /= z;
+        double r2 = x * x + y * y;
+        double radial = 1 + r2 * (d[0] + r2 * (d[1] + r2 * d[4]));
+        double xd = x * radial + 2 * d[2] * x * y + d[3] * (r2 + 2 * x * x);
+        double yd = y * radial + d[2] * (r2 + 2 * y * y) + 2 * d[3] * x * y;
+        return new Point(k[0] * xd + k[2], k[4] * yd + k[5]);
+    }
+
+    /**
+     * 歪み補正後の画像に透視変換を掛けた画像を、歪み補正前の画像から1回の再サンプリングで作ります
+     * 透視変換行列はフレームごとに変わるので、変わらない部分(歪み補正後の座標→歪み補正前の座標の表)だけを一度作っておき、
+     * 呼び出しごとにその表を出力サイズへ透視変換して、出力の各画素に対応する歪み補正前の座標を求める
+     * @param rawImage 歪み補正前の画像
+     * @param transformMatrix 出力画像の座標から歪み補正後の画像の座標への透視変換行列(3x3)
+     * @param outputSize 出力画像のサイズ
+     */
+    public Mat warpFromRaw(Mat rawImage, Mat transformMatrix, Size outputSize) {
+        Mat mapX;
+        Mat mapY;
+        synchronized (this) {
+            if (rawMapSize == null || rawMapSize.width != rawImage.cols() || rawMapSize.height != rawImage.rows()) {
+                buildRawMaps(rawImage.size());
+            }
+            mapX = rawMapX;
+            mapY = rawMapY;
+        }
+        // 出力の画素(u, v)の値を表の H * (u, v) の位置から取る. 画像の外は-1にしてremapで黒にする
+        int flags = Imgproc.INTER_LINEAR | Imgproc.WARP_INVERSE_MAP;
+        Scalar outside = new Scalar(-1);
+        Mat warpedMapX = new Mat();
+        Mat warpedMapY = new Mat();
+        Imgproc.warpPerspective(mapX, warpedMapX, transformMatrix, outputSize, flags, Core.BORDER_CONSTANT, outside);
+        Imgproc.warpPerspective(mapY, warpedMapY, transformMatrix, outputSize, flags, Core.BORDER_CONSTANT, outside);
+
+        Mat warped = new Mat();
+        Imgproc.remap(rawImage, warped, warpedMapX, warpedMapY, Imgproc.INTER_LINEAR);
+        warpedMapX.release();
+        warpedMapY.release();
+        return warped;
+    }
+
+    // 歪み補正後の座標から歪み補正前の座標への表を浮動小数点で作る(透視変換で補間できるようにする)
+    private void buildRawMaps(Size imageSize) {
+        // 使用中の表を書き換えないように、毎回新しく作る
+        rawMapX = new Mat();
+        rawMapY = new Mat();
+        Calib3d.initUndistortRectifyMap(cameraMatrix, distortionCoefficients, new Mat(), cameraMatrix, imageSize, CvType.CV_32FC1, rawMapX, rawMapY);
+        rawMapSize = imageSize;
+    }
+
+    // 歪み補正の変換テーブルを作る
+    private synchronized void buildMaps(Size imageSize) {
+        Calib3d.initUndistortRectifyMap(cameraMatrix, distortionCoefficients, new Mat(), cameraMatrix, imageSize, CvType.CV_16SC2, map1, map2);
+        mapSize = imageSize;
+    }
+}
@@ -0,0 +1,54 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.image;
+
+/**
+ * ロボットに対するカメラの取り付け位置と向き
+ * ロボット座標系はx:前, y:右, z:下, カメラ座標系はx:画像の右, y:画像の下, z:光軸
+ */
+public enum CameraMount {
+    // NavCamは前向き(ロボットのx軸正方向を撮る)
+    NAV_CAM(0.1177, -0.0422, -0.0826, 1),
+    // DockCamは後ろ向き(ロボットのx軸負方向を撮る)
+    DOCK_CAM(-0.1061, -0.054, -0.0064, -1);
+
+    private final double offsetX, offsetY, offsetZ;  // ロボットの中心からカメラまでの位置[m]
+    private final int direction;                       // 光軸がロボットのx軸の正負どちらを向くか
+
+    CameraMount(double offsetX, double offsetY, double offsetZ, int direction) {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.offsetZ = offsetZ;
+        this.direction = direction;
+    }
+
+    public double getOffsetX() {
+        return offsetX;
+    }
+
+    public double getOffsetY() {
+        return offsetY;
+    }
+
+    public double getOffsetZ() {
+        return offsetZ;
+    }
+
+    /**
+     * 光軸の向き(ロボット座標系のx成分). NavCamは1, DockCamは-1
+     */
+    public int getDirection() {
+        return direction;
+    }
+
+    /**
+     * ロボット座標系の点をカメラ座標系に変換します
+     * @param out 変換後の座標を入れる配列(長さ3)
+     */
+    public void bodyToCamera(double bx, double by, double bz, double[] out) {
+        double dx = bx - offsetX;
+        double dy = by - offsetY;
+        double dz = bz - offsetZ;
+        out[0] = direction * dy;
+        out[1] = dz;
+        out[2] = direction * dx;
+    }
+}
@@ -0,0 +1,214 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.image;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayDeque;
+
+import jp.jaxa.iss.kibo.rpc.api.KiboRpcApi;
+
+/**
+ * 画像の保存を優先度の低い専用スレッドで行うクラス
+ * 保存要求は待ち行列に入れるだけなので、ミッションのスレッドがPNGのエンコードやディスクの書き込みを待つことはない
+ * 待ち行列の画像の合計バイト数には上限があり、上限を超えるときはデバッグ用の画像を縮小するか捨てる
+ * 渡したMatやBitmapは保存が終わるまで書き換えないこと
+ */
+public final class ImageSink {
+    private static final String TAG = "ImageSink";
+
+    private final KiboRpcApi api;
+    private final long byteBudget;      // 待ち行列の画像の合計バイト数の上限
+    private final ArrayDeque<Request> queue = new ArrayDeque<>();
+    private final Thread worker;
+    private long queuedBytes;           // 待ち行列の画像の合計バイト数
+    private boolean saving;             // ワーカーが保存中かどうか
+    private boolean closed;
+    private int dropCount;              // 捨てた画像の数
+    private volatile boolean debugEnabled = true;  // falseならデバッグ用の画像は保存しない
+
+    // 保存要求
+    private static final class Request {
+        final Mat mat;
+        final Bitmap bitmap;
+        final String fileName;
+        final long bytes;
+
+        Request(Mat mat, Bitmap bitmap, String fileName, long bytes) {
+            this.mat = mat;
+            this.bitmap = bitmap;
+            this.fileName = fileName;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param api 画像の保存に使うAPI
+     * @param byteBudget 待ち行列に溜めておける画像の合計バイト数
+     */
+    public ImageSink(KiboRpcApi api, long byteBudget) {
+        this.api = api;
+        this.byteBudget = byteBudget;
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processQueue();
+            }
+        }, TAG);
+        this.worker.setPriority(Thread.MIN_PRIORITY);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 画像を保存します. 上限を超えていても捨てません
+     */
+    public void save(Mat mat, String fileName) {
+        if (mat == null) {
+            return;
+        }
+        enqueue(new Request(mat, null, fileName, mat.total() * mat.elemSize()), false);
+    }
+
+    public void save(Bitmap bitmap, String fileName) {
+        if (bitmap == null) {
+            return;
+        }
+        enqueue(new Request(null, bitmap, fileName, bitmap.getByteCount()), false);
+    }
+
+    /**
+     * デバッグ用の画像を保存するかどうかを切り替えます(時間に余裕がないときは止める)
+     */
+    public void setDebugEnabled(boolean debugEnabled) {
+        this.debugEnabled = debugEnabled;
+    }
+
+    public boolean isDebugEnabled() {
+        return debugEnabled;
+    }
+
+    /**
+     * デバッグ用の画像を保存します. 上限を超える場合は縮小し、それでも入らなければ捨てます
+     */
+    public void saveDebug(Mat mat, String fileName) {
+        if (mat == null || !debugEnabled) {
+            return;
+        }
+        long bytes = mat.total() * mat.elemSize();
+        if (!fits(bytes) && fits(bytes / 4)) {
+            Mat small = new Mat();
+            Imgproc.resize(mat, small, new Size(mat.cols() / 2, mat.rows() / 2), 0, 0, Imgproc.INTER_AREA);
+            mat = small;
+            bytes = mat.total() * mat.elemSize();
+        }
+        enqueue(new Request(mat, null, fileName, bytes), true);
+    }
+
+    public void saveDebug(Bitmap bitmap, String fileName) {
+        if (bitmap == null || !debugEnabled) {
+            return;
+        }
+        long bytes = bitmap.getByteCount();
+        if (!fits(bytes) && fits(bytes / 4)) {
+            bitmap = Bitmap.createScaledBitmap(bitmap, bitmap.getWidth() / 2, bitmap.getHeight() / 2, true);
+            bytes = bitmap.getByteCount();
+        }
+        enqueue(new Request(null, bitmap, fileName, bytes), true);
+    }
+
+    /**
+     * 待ち行列の画像を保存し終わるまで、最大でtimeoutMillisだけ待ちます
+     * @return 全て保存し終わった場合はtrue
+     */
+    public synchronized boolean flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!queue.isEmpty() || saving) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                Log.w(TAG, "flush timed out: " + queue.size() + " images left");
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 待ち行列の画像を最大でtimeoutMillisだけ保存してから、ワーカーを止めます
+     * 保存しきれなかった画像は捨てます
+     */
+    public void close(long timeoutMillis) {
+        flush(timeoutMillis);
+        synchronized (this) {
+            closed = true;
+            // 保存中の画像のバイト数はワーカーが保存後に引くので、待ち行列から取り除いた分だけ引く
+            while (!queue.isEmpty()) {
+                queuedBytes -= queue.pollFirst().bytes;
+                ++dropCount;
+            }
+            notifyAll();
+        }
+        Log.i(TAG, "closed: dropped " + dropCount + " images");
+    }
+
+    private synchronized boolean fits(long bytes) {
+        return queuedBytes + bytes <= byteBudget;
+    }
+
+    private synchronized void enqueue(Request request, boolean droppable) {
+        if (closed) {
+            return;
+        }
+        if (droppable && queuedBytes + request.bytes > byteBudget) {
+            ++dropCount;
+            Log.w(TAG, "dropped " + request.fileName + " (" + queuedBytes + " bytes queued)");
+            return;
+        }
+        queue.addLast(request);
+        queuedBytes += request.bytes;
+        notifyAll();
+    }
+
+    private void processQueue() {
+        while (true) {
+            Request request;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                request = queue.pollFirst();
+                saving = true;
+            }
+            try {
+                if (request.mat != null) {
+                    api.saveMatImage(request.mat, request.fileName);
+                } else {
+                    api.saveBitmapImage(request.bitmap, request.fileName);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "save failed: " + request.fileName, e);
+            }
+            synchronized (this) {
+                queuedBytes -= request.bytes;
+                saving = false;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.ArrayList;
@@ -14,20 +15,7 @@ import java.util.ArrayList;
 public class ImageUtil {
     public static Mat clip(Mat image, Mat corner) {
 
-        final org.opencv.core.Point[] points = new org.opencv.core.Point[4];
-        // point[0]:ARコードの左上の座標, point[1]:右上の座標, point[2]:右下の座標, point[3]:左下の座標
-        for (int i = 0; i < 4; i++) {
-            points[i] = new org.opencv.core.Point(corner.get(0, i));
-        }
-        double[] corner0 = corner.get(0, 0);
-        double[] corner1 = corner.get(0, 1);
-        double[] corner2 = corner.get(0, 2);
-        double[] corner3 = corner.get(0, 3);
-
-        points[0] = new org.opencv.core.Point(-103 / 20 * (corner1[0] - corner0[0]) - 5 / 4 * (corner3[0] - corner0[0]) + corner0[0], -103 / 20 * (corner1[1] - corner0[1]) - 5 / 4 * (corner3[1] - corner0[1]) + corner0[1]);
-        points[1] = new org.opencv.core.Point(17 / 20 * (corner1[0] - corner0[0]) - 5 / 4 * (corner3[0] - corner0[0]) + corner0[0], 17 / 20 * (corner1[1] - corner0[1]) - 5 / 4 * (corner3[1] - corner0[1]) + corner0[1]);
-        points[2] = new org.opencv.core.Point(17 / 20 * (corner1[0] - corner0[0]) + 15 / 4 * (corner3[0] - corner0[0]) + corner0[0], 17 / 20 * (corner1[1] - corner0[1]) + 15 / 4 * (corner3[1] - corner0[1]) + corner0[1]);
-        points[3] = new org.opencv.core.Point(-103 / 20 * (corner1[0] - corner0[0]) + 15 / 4 * (corner3[0] - corner0[0]) + corner0[0], -103 / 20 * (corner1[1] - corner0[1]) + 15 / 4 * (corner3[1] - corner0[1]) + corner0[1]);
+        final org.opencv.core.Point[] points = sheetCorners(corner.get(0, 0), corner.get(0, 1), corner.get(0, 3));
 
         double width = Math.sqrt(Math.pow(points[0].x - points[1].x, 2) + Math.pow(points[0].y - points[1].y, 2));
         double height = Math.sqrt(Math.pow(points[0].x - points[3].x, 2) + Math.pow(points[0].y - points[3].y, 2));
@@ -56,6 +44,52 @@ public class ImageUtil {
 
     }
 
+    /**
+     * ARタグの角の座標から、台紙の四隅の座標を求めます
+     * @param corner0 ARタグの左上の座標
+     * @param corner1 ARタグの右上の座標
+     * @param corner3 ARタグの左下の座標
+     * @return point[0]:台紙の左上の座標, point[1]:右上の座標, point[2]:右下の座標, point[3]:左下の座標
+     */
+    public static org.opencv.core.Point[] sheetCorners(double[] corner0, double[] corner1, double[] corner3) {
+        final org.opencv.core.Point[] points = new org.opencv.core.Point[4];
+        points[0] = new org.opencv.core.Point(-103 / 20 * (corner1[0] - corner0[0]) - 5 / 4 * (corner3[0] - corner0[0]) + corner0[0], -103 / 20 * (corner1[1] - corner0[1]) - 5 / 4 * (corner3[1] - corner0[1]) + corner0[1]);
+        points[1] = new org.opencv.core.Point(17 / 20 * (corner1[0] - corner0[0]) - 5 / 4 * (corner3[0] - corner0[0]) + corner0[0], 17 / 20 * (corner1[1] - corner0[1]) - 5 / 4 * (corner3[1] - corner0[1]) + corner0[1]);
+        points[2] = new org.opencv.core.Point(17 / 20 * (corner1[0] - corner0[0]) + 15 / 4 * (corner3[0] - corner0[0]) + corner0[0], 17 / 20 * (corner1[1] - corner0[1]) + 15 / 4 * (corner3[1] - corner0[1]) + corner0[1]);
+        points[3] = new org.opencv.core.Point(-103 / 20 * (corner1[0] - corner0[0]) + 15 / 4 * (corner3[0] - corner0[0]) + corner0[0], -103 / 20 * (corner1[1] - corner0[1]) + 15 / 4 * (corner3[1] - corner0[1]) + corner0[1]);
+        return points;
+    }
+
+    /**
+     * 歪み補正前の画像から、台紙の部分を歪み補正と同時に切り抜きます
+     * ARタグの角の座標だけを歪み補正し、出力画像の各画素が元画像のどこに対応するかを一度に求めるので、
+     * 画像の再サンプリングは1回で済む
+     * @param rawImage 歪み補正前の画像
+     * @param rawCorner 歪み補正前の画像で検出したARタグの角の座標
+     * @param cameraModel 画像を撮影したカメラ
+     * @param outputSize 出力画像のサイズ(検出器の入力サイズにするとリサイズが不要になる)
+     * @return 切り抜いた画像
+     */
+    public static Mat clipUndistorted(Mat rawImage, Mat rawCorner, CameraModel cameraModel, Size outputSize) {
+        Point[] corner = cameraModel.undistortPoints(new MatOfPoint2f(rawCorner).toArray());
+        final org.opencv.core.Point[] points = sheetCorners(
+                new double[]{corner[0].x, corner[0].y},
+                new double[]{corner[1].x, corner[1].y},
+                new double[]{corner[3].x, corner[3].y});
+
+        // 出力画像の座標から、歪み補正後の画像の座標への透視変換行列
+        MatOfPoint2f srcPoints = new MatOfPoint2f(
+                new Point(0, 0),
+                new Point(outputSize.width - 1, 0),
+                new Point(outputSize.width - 1, outputSize.height - 1),
+                new Point(0, outputSize.height - 1)
+        );
+        MatOfPoint2f dstPoints = new MatOfPoint2f(points);
+        Mat transformMatrix = Imgproc.getPerspectiveTransform(srcPoints, dstPoints);
+
+        return cameraModel.warpFromRaw(rawImage, transformMatrix, outputSize);
+    }
+
     @Nullable
     public static Mat clipAR(Mat image) {
         // ARタグを検知する
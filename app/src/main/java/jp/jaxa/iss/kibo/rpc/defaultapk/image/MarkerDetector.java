@@ -0,0 +1,127 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.image;
+
+import org.opencv.aruco.Aruco;
+import org.opencv.aruco.DetectorParameters;
+import org.opencv.aruco.Dictionary;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ARタグを検知するクラス
+ * 辞書と検知のパラメータは生成時に一度だけ作り、以降の検知で使い回す
+ * 検知結果は1フレームにつき1回だけ求め、切り抜きや処理の分岐にはその結果を使うこと
+ *
+ * 検知はまず縮小した画像で二値化の窓の大きさを1通りだけ試して行い、見つかった角だけを元の解像度でサブピクセル精度に補正する
+ * 縮小した画像で見つからなかったときだけ、元の解像度で窓の大きさを変えながら検知し直す
+ */
+public class MarkerDetector {
+    private final Dictionary dictionary;
+    private final DetectorParameters coarseParameters;  // 縮小した画像での検知のパラメータ
+    private final DetectorParameters parameters;        // 元の解像度での検知のパラメータ
+    private double coarseScale = 0.5;  // 最初に検知する画像の縮小率(1以上なら縮小しない)
+
+    // 縮小した画像で二値化する窓の大きさ[px]. 縮小するとARタグの大きさがほぼ決まるので1通りだけ試す
+    private static final int COARSE_WINDOW_SIZE = 13;
+
+    // コンストラクタ
+    public MarkerDetector() {
+        dictionary = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
+        coarseParameters = DetectorParameters.create();
+        coarseParameters.set_adaptiveThreshWinSizeMin(COARSE_WINDOW_SIZE);
+        coarseParameters.set_adaptiveThreshWinSizeMax(COARSE_WINDOW_SIZE);
+        coarseParameters.set_adaptiveThreshWinSizeStep(COARSE_WINDOW_SIZE);
+        // 元の解像度では、縮小した画像で見つからなかったときだけ既定の窓の大きさ(3〜23)を全て試す
+        parameters = DetectorParameters.create();
+    }
+
+    public void setCoarseScale(double coarseScale) {
+        this.coarseScale = coarseScale;
+    }
+
+    /**
+     * ARタグを検知します
+     * @param image 検知する画像
+     * @return 検知したARタグの角の座標(1x4, CV_32FC2, 元の画像の座標)のリスト. 見つからなければ空
+     */
+    public List<Mat> detect(Mat image) {
+        if (coarseScale < 1.0) {
+            Mat small = new Mat();
+            Imgproc.resize(image, small, new Size(), coarseScale, coarseScale, Imgproc.INTER_AREA);
+            List<Mat> corners = detectMarkers(small, coarseParameters);
+            if (!corners.isEmpty()) {
+                refineCorners(image, corners);
+                return corners;
+            }
+        }
+        return detectMarkers(image, parameters);
+    }
+
+    /**
+     * 予測した範囲(ROI)で先にARタグを検知し、見つからなければ画像全体で検知します
+     * @param roi 検知する範囲. nullなら画像全体で検知する
+     * @return 検知したARタグの角の座標(1x4, CV_32FC2, 元の画像の座標)のリスト. 見つからなければ空
+     */
+    public List<Mat> detect(Mat image, Rect roi) {
+        if (roi != null) {
+            // submatはコピーせずに元の画像を参照する
+            List<Mat> corners = detect(image.submat(roi));
+            if (!corners.isEmpty()) {
+                float[] points = new float[8];
+                for (Mat corner : corners) {
+                    corner.get(0, 0, points);
+                    for (int i = 0; i < 4; i++) {
+                        points[2 * i] += roi.x;
+                        points[2 * i + 1] += roi.y;
+                    }
+                    corner.put(0, 0, points);
+                }
+                return corners;
+            }
+        }
+        return detect(image);
+    }
+
+    private List<Mat> detectMarkers(Mat image, DetectorParameters detectorParameters) {
+        List<Mat> corners = new ArrayList<>();
+        Mat markerIds = new Mat();
+        Aruco.detectMarkers(image, dictionary, corners, markerIds, detectorParameters);
+        return corners;
+    }
+
+    // 縮小した画像で求めた角の座標を元の解像度に戻し、角の周りの小さな窓でサブピクセル精度に補正する
+    private void refineCorners(Mat image, List<Mat> corners) {
+        Mat gray = image;
+        if (image.channels() == 3) {
+            gray = new Mat();
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_RGB2GRAY);
+        } else if (image.channels() == 4) {
+            gray = new Mat();
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_RGBA2GRAY);
+        }
+        // 縮小画像の1画素が元の画像で何画素になるかに合わせて窓の大きさを決める
+        int halfWindow = (int) Math.ceil(1.0 / coarseScale) + 2;
+        Size windowSize = new Size(halfWindow, halfWindow);
+        Size zeroZone = new Size(-1, -1);
+        TermCriteria criteria = new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.01);
+
+        float[] points = new float[8];
+        for (Mat corner : corners) {
+            corner.get(0, 0, points);
+            org.opencv.core.Point[] scaled = new org.opencv.core.Point[4];
+            for (int i = 0; i < 4; i++) {
+                scaled[i] = new org.opencv.core.Point(points[2 * i] / coarseScale, points[2 * i + 1] / coarseScale);
+            }
+            MatOfPoint2f refined = new MatOfPoint2f(scaled);
+            Imgproc.cornerSubPix(gray, refined, windowSize, zeroZone, criteria);
+            refined.get(0, 0, points);
+            corner.put(0, 0, points);
+        }
+    }
+}
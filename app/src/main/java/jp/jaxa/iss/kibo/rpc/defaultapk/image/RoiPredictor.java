@@ -0,0 +1,89 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.image;
+
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import gov.nasa.arc.astrobee.Kinematics;
+import gov.nasa.arc.astrobee.types.Quaternion;
+import jp.jaxa.iss.kibo.rpc.defaultapk.field.Area;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Axis;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Quat;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Vec3;
+
+/**
+ * ロボットの位置と姿勢、カメラの取り付け位置と内部パラメータ、エリアの位置から、
+ * 撮影した画像のどこに台紙とARタグが写るかを予測するクラス
+ * 予測した範囲(ROI)だけを先に処理し、見つからなければ画像全体を処理する
+ */
+public final class RoiPredictor {
+    private RoiPredictor() {}
+
+    /**
+     * 台紙が写る範囲を予測します
+     * @param kinematics 撮影したときのロボットの状態
+     * @param mount 撮影したカメラの取り付け位置
+     * @param cameraModel 撮影したカメラの内部パラメータ
+     * @param area 撮影したエリア
+     * @param imageSize 画像のサイズ
+     * @param marginRatio 予測した範囲の幅と高さに対して、上下左右に広げる割合
+     * @return 歪み補正前の画像での範囲. 予測できない場合(姿勢が取れない、台紙がカメラの後ろにある、画像の外にある)はnull
+     */
+    public static Rect predict(Kinematics kinematics, CameraMount mount, CameraModel cameraModel, Area area, Size imageSize, double marginRatio) {
+        if (kinematics == null || kinematics.getPosition() == null || kinematics.getOrientation() == null) {
+            return null;
+        }
+        return predict(kinematics.getPosition(), kinematics.getOrientation(), mount, cameraModel, area, imageSize, marginRatio);
+    }
+
+    public static Rect predict(gov.nasa.arc.astrobee.types.Point position, Quaternion orientation, CameraMount mount, CameraModel cameraModel, Area area, Size imageSize, double marginRatio) {
+        // 姿勢(ロボット座標系→ISS座標系の回転)
+        Quat attitude = new Quat().set(orientation);
+        if (attitude.dot(attitude) == 0) {
+            return null;
+        }
+        attitude.normalize();
+
+        // 台紙の面内の2軸
+        Axis normal = area.getNormal();
+        double[] u = normal.getX() != 0 ? new double[]{0, 1, 0} : new double[]{1, 0, 0};
+        double[] v = normal.getZ() != 0 ? new double[]{0, 1, 0} : new double[]{0, 0, 1};
+
+        double h = Area.SHEET_HALF_SIZE;
+        double minU = Double.MAX_VALUE, minV = Double.MAX_VALUE;
+        double maxU = -Double.MAX_VALUE, maxV = -Double.MAX_VALUE;
+        Vec3 body = new Vec3();
+        double[] camera = new double[3];
+        for (int su = -1; su <= 1; su += 2) {
+            for (int sv = -1; sv <= 1; sv += 2) {
+                // 台紙の角のISS座標系での位置から、ロボットの位置を引いてロボット座標系に回す
+                body.set(area.getX() + h * (su * u[0] + sv * v[0]) - position.getX(),
+                        area.getY() + h * (su * u[1] + sv * v[1]) - position.getY(),
+                        area.getZ() + h * (su * u[2] + sv * v[2]) - position.getZ());
+                attitude.inverseTransform(body);
+                mount.bodyToCamera(body.x, body.y, body.z, camera);
+                if (camera[2] <= 0.01) {
+                    // 台紙の角がカメラの後ろにある
+                    return null;
+                }
+                Point pixel = cameraModel.projectPoint(camera[0], camera[1], camera[2]);
+                minU = Math.min(minU, pixel.x);
+                maxU = Math.max(maxU, pixel.x);
+                minV = Math.min(minV, pixel.y);
+                maxV = Math.max(maxV, pixel.y);
+            }
+        }
+
+        // 姿勢の誤差と歪みの分だけ広げて、画像の内側に収める
+        double marginU = (maxU - minU) * marginRatio;
+        double marginV = (maxV - minV) * marginRatio;
+        int left = (int) Math.max(0, Math.floor(minU - marginU));
+        int top = (int) Math.max(0, Math.floor(minV - marginV));
+        int right = (int) Math.min(imageSize.width, Math.ceil(maxU + marginU));
+        int bottom = (int) Math.min(imageSize.height, Math.ceil(maxV + marginV));
+        if (right - left <= 0 || bottom - top <= 0) {
+            return null;
+        }
+        return new Rect(left, top, right - left, bottom - top);
+    }
+}
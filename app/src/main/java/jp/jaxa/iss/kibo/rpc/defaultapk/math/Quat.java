@@ -0,0 +1,171 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.math;
+
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * 書き換えできる四元数 (x, y, z, w)
+ * 演算は自分自身を書き換えて自分を返すので、ループの中で使ってもオブジェクトを作らない
+ * 計算はdoubleで行い、APIのQuaternion(float)との変換は、APIとやり取りするときだけ行う
+ */
+public final class Quat {
+    // これより角度が小さい場合、slerpは線形補間で代用する
+    private static final double SLERP_LINEAR_THRESHOLD = 1e-6;
+
+    public double x;
+    public double y;
+    public double z;
+    public double w = 1;
+
+    public Quat() {}
+
+    public Quat(double x, double y, double z, double w) {
+        set(x, y, z, w);
+    }
+
+    public Quat set(double x, double y, double z, double w) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+        return this;
+    }
+
+    public Quat set(Quat q) {
+        return set(q.x, q.y, q.z, q.w);
+    }
+
+    public Quat set(Quaternion q) {
+        return set(q.getX(), q.getY(), q.getZ(), q.getW());
+    }
+
+    public Quat identity() {
+        return set(0, 0, 0, 1);
+    }
+
+    /**
+     * 回転軸と回転量から作ります
+     * @param rotationAmount 回転量[rad]
+     */
+    public Quat setAxisAngle(double axisX, double axisY, double axisZ, double rotationAmount) {
+        double length = Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+        if (length == 0) {
+            return identity();
+        }
+        double sin = Math.sin(rotationAmount / 2) / length;
+        return set(axisX * sin, axisY * sin, axisZ * sin, Math.cos(rotationAmount / 2));
+    }
+
+    /**
+     * ハミルトン積 (this * q) で書き換えます
+     */
+    public Quat mul(Quat q) {
+        return set(
+                w * q.x + q.w * x + y * q.z - q.y * z,
+                w * q.y + q.w * y - x * q.z + q.x * z,
+                w * q.z + q.w * z + x * q.y - q.x * y,
+                w * q.w - x * q.x - y * q.y - z * q.z);
+    }
+
+    /**
+     * ハミルトン積 (q * this) で書き換えます
+     */
+    public Quat premul(Quat q) {
+        return set(
+                q.w * x + w * q.x + q.y * z - y * q.z,
+                q.w * y + w * q.y - q.x * z + x * q.z,
+                q.w * z + w * q.z + q.x * y - x * q.y,
+                q.w * w - q.x * x - q.y * y - q.z * z);
+    }
+
+    public Quat conjugate() {
+        return set(-x, -y, -z, w);
+    }
+
+    public double dot(Quat q) {
+        return x * q.x + y * q.y + z * q.z + w * q.w;
+    }
+
+    /**
+     * 長さを1にします. 長さが0の場合は単位元にする
+     */
+    public Quat normalize() {
+        double length = Math.sqrt(x * x + y * y + z * z + w * w);
+        if (length == 0) {
+            return identity();
+        }
+        return set(x / length, y / length, z / length, w / length);
+    }
+
+    /**
+     * ベクトルvをこの四元数(単位四元数)で回転させます. vを書き換えて返します
+     */
+    public Vec3 transform(Vec3 v) {
+        // v' = v + 2w(q×v) + 2q×(q×v)
+        double tx = 2 * (y * v.z - z * v.y);
+        double ty = 2 * (z * v.x - x * v.z);
+        double tz = 2 * (x * v.y - y * v.x);
+        return v.set(
+                v.x + w * tx + y * tz - z * ty,
+                v.y + w * ty + z * tx - x * tz,
+                v.z + w * tz + x * ty - y * tx);
+    }
+
+    /**
+     * ベクトルvを逆向きに回転させます(回転先の座標系から元の座標系へ). vを書き換えて返します
+     */
+    public Vec3 inverseTransform(Vec3 v) {
+        double tx = 2 * (-y * v.z + z * v.y);
+        double ty = 2 * (-z * v.x + x * v.z);
+        double tz = 2 * (-x * v.y + y * v.x);
+        return v.set(
+                v.x + w * tx - y * tz + z * ty,
+                v.y + w * ty - z * tx + x * tz,
+                v.z + w * tz - x * ty + y * tx);
+    }
+
+    /**
+     * この四元数からtargetへ球面線形補間した値で書き換えます. 短い方の回転で補間する
+     * @param t 0ならこの四元数、1ならtarget
+     */
+    public Quat slerp(Quat target, double t) {
+        double tx = target.x, ty = target.y, tz = target.z, tw = target.w;
+        double cos = dot(target);
+        if (cos < 0) {
+            // qと-qは同じ回転なので、近い方へ向かう
+            cos = -cos;
+            tx = -tx;
+            ty = -ty;
+            tz = -tz;
+            tw = -tw;
+        }
+        double s0, s1;
+        if (1 - cos < SLERP_LINEAR_THRESHOLD) {
+            s0 = 1 - t;
+            s1 = t;
+        } else {
+            double angle = Math.acos(Math.min(cos, 1));
+            double sin = Math.sin(angle);
+            s0 = Math.sin((1 - t) * angle) / sin;
+            s1 = Math.sin(t * angle) / sin;
+        }
+        set(s0 * x + s1 * tx, s0 * y + s1 * ty, s0 * z + s1 * tz, s0 * w + s1 * tw);
+        return normalize();
+    }
+
+    /**
+     * qへの回転角[rad]を返します(短い方の回転)
+     */
+    public double angleTo(Quat q) {
+        double cos = Math.min(1, Math.abs(dot(q)));
+        return 2 * Math.acos(cos);
+    }
+
+    public Quaternion toQuaternion() {
+        return new Quaternion((float) x, (float) y, (float) z, (float) w);
+    }
+
+    @Override
+    public String toString() {
+        return "Quat{" + x + ", " + y + ", " + z + ", " + w + "}";
+    }
+}
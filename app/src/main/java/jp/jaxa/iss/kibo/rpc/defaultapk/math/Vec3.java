@@ -0,0 +1,96 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.math;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Vec3d;
+
+/**
+ * 書き換えできる3次元ベクトル
+ * 演算は自分自身を書き換えて自分を返すので、ループの中で使ってもオブジェクトを作らない
+ * APIのVec3dやPointとの変換は、APIとやり取りするときだけ行う
+ */
+public final class Vec3 {
+    public double x;
+    public double y;
+    public double z;
+
+    public Vec3() {}
+
+    public Vec3(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public Vec3 set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public Vec3 set(Vec3 v) {
+        return set(v.x, v.y, v.z);
+    }
+
+    public Vec3 set(Vec3d v) {
+        // toArray()は配列を作るので、Pointなら各成分を直接読む
+        if (v instanceof Point) {
+            Point p = (Point) v;
+            return set(p.getX(), p.getY(), p.getZ());
+        }
+        double[] values = v.toArray();
+        return set(values[0], values[1], values[2]);
+    }
+
+    public Vec3 add(Vec3 v) {
+        return set(x + v.x, y + v.y, z + v.z);
+    }
+
+    public Vec3 sub(Vec3 v) {
+        return set(x - v.x, y - v.y, z - v.z);
+    }
+
+    public Vec3 scale(double s) {
+        return set(x * s, y * s, z * s);
+    }
+
+    public Vec3 negate() {
+        return set(-x, -y, -z);
+    }
+
+    public double dot(Vec3 v) {
+        return x * v.x + y * v.y + z * v.z;
+    }
+
+    /**
+     * 外積 (this × v) で書き換えます
+     */
+    public Vec3 cross(Vec3 v) {
+        return set(y * v.z - z * v.y, z * v.x - x * v.z, x * v.y - y * v.x);
+    }
+
+    public double length() {
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * 長さを1にします. 長さが0の場合はそのまま
+     */
+    public Vec3 normalize() {
+        double length = length();
+        return length == 0 ? this : scale(1 / length);
+    }
+
+    public Vec3d toVec3d() {
+        return new Vec3d(x, y, z);
+    }
+
+    public Point toPoint() {
+        return new Point(x, y, z);
+    }
+
+    @Override
+    public String toString() {
+        return "Vec3{" + x + ", " + y + ", " + z + "}";
+    }
+}
@@ -0,0 +1,84 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.motion;
+
+/**
+ * 名前を付けたコマンド(移動先など)ごとの実行回数と時間
+ */
+public final class CommandMetrics {
+    private final String name;
+    private int calls;            // 呼び出された回数
+    private int attempts;         // APIを実行した回数(再試行を含む)
+    private int failedAttempts;   // APIが失敗した回数
+    private int accepted;         // 失敗したが受け入れた回数
+    private int aborted;          // 諦めた回数
+    private long totalMillis;     // 呼び出しにかかった時間の合計[ms]
+    private long maxAttemptMillis; // 1回の実行にかかった時間の最大[ms]
+    private String lastFailure;   // 最後に失敗した理由
+
+    CommandMetrics(String name) {
+        this.name = name;
+    }
+
+    void recordAttempt(long millis, boolean succeeded, String failure) {
+        ++attempts;
+        maxAttemptMillis = Math.max(maxAttemptMillis, millis);
+        if (!succeeded) {
+            ++failedAttempts;
+            lastFailure = failure;
+        }
+    }
+
+    void recordCall(long millis, boolean accepted, boolean aborted) {
+        ++calls;
+        totalMillis += millis;
+        if (accepted) {
+            ++this.accepted;
+        }
+        if (aborted) {
+            ++this.aborted;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCalls() {
+        return calls;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public int getAborted() {
+        return aborted;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public long getMaxAttemptMillis() {
+        return maxAttemptMillis;
+    }
+
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": calls=" + calls + ", attempts=" + attempts + ", failed=" + failedAttempts
+                + ", accepted=" + accepted + ", aborted=" + aborted
+                + ", total=" + totalMillis + "ms, maxAttempt=" + maxAttemptMillis + "ms"
+                + (lastFailure != null ? ", lastFailure=" + lastFailure : "");
+    }
+}
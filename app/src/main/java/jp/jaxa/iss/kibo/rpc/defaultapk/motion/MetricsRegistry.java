@@ -0,0 +1,49 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.motion;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * コマンドの名前ごとにCommandMetricsを集めるクラス
+ * ミッションの時間がどこに使われたか、効果のない再試行がどこにあるかを調べるのに使う
+ */
+public final class MetricsRegistry {
+    private final Map<String, CommandMetrics> metrics = new LinkedHashMap<>();
+
+    synchronized void recordAttempt(String name, long millis, boolean succeeded, String failure) {
+        get(name).recordAttempt(millis, succeeded, failure);
+    }
+
+    synchronized void recordCall(String name, long millis, boolean accepted, boolean aborted) {
+        get(name).recordCall(millis, accepted, aborted);
+    }
+
+    /**
+     * 名前に対応する記録を返します(なければ作る)
+     */
+    public synchronized CommandMetrics get(String name) {
+        CommandMetrics commandMetrics = metrics.get(name);
+        if (commandMetrics == null) {
+            commandMetrics = new CommandMetrics(name);
+            metrics.put(name, commandMetrics);
+        }
+        return commandMetrics;
+    }
+
+    public synchronized List<CommandMetrics> getAll() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    /**
+     * 全ての記録を最初に実行した順にログに出力します
+     */
+    public synchronized void log(String tag) {
+        for (CommandMetrics commandMetrics : metrics.values()) {
+            Log.i(tag, commandMetrics.toString());
+        }
+    }
+}
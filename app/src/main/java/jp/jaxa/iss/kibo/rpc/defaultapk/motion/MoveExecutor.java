@@ -0,0 +1,221 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.motion;
+
+import android.util.Log;
+
+import java.util.List;
+
+import gov.nasa.arc.astrobee.Result;
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+import jp.jaxa.iss.kibo.rpc.api.KiboRpcApi;
+import jp.jaxa.iss.kibo.rpc.defaultapk.MissionClock;
+import jp.jaxa.iss.kibo.rpc.defaultapk.planner.LookAtSolver;
+
+/**
+ * moveToやフラッシュライトの操作を、再試行の方針に従って実行するクラス
+ * 実行ごとの時間と回数、失敗した理由を名前ごとにMetricsRegistryへ記録する
+ * 再試行の回数の上限はMissionClockの残り時間に応じて決める
+ */
+public class MoveExecutor {
+    private static final String TAG = "MoveExecutor";
+
+    /**
+     * 実行するコマンド
+     */
+    public interface Command {
+        Result run();
+    }
+
+    /**
+     * 再試行しても移動できなかったときに、別の経路を作るフック
+     */
+    public interface ReplanHook {
+        /**
+         * @return 移動先に向かうための経由点のリスト(最後は移動先). 別の経路がなければnull
+         */
+        List<Point> replan(String name, Point target, Quaternion orientation, Result lastResult);
+    }
+
+    private final KiboRpcApi api;
+    private final MissionClock missionClock;
+    private final MetricsRegistry metrics;
+    private final int loopMax;                // 再試行の回数の上限(残り時間に余裕があるとき)
+    private RetryPolicy defaultPolicy = RetryPolicies.immediate();
+
+    /**
+     * @param loopMax 残り時間に余裕があるときの再試行の回数の上限
+     */
+    public MoveExecutor(KiboRpcApi api, MissionClock missionClock, MetricsRegistry metrics, int loopMax) {
+        this.api = api;
+        this.missionClock = missionClock;
+        this.metrics = metrics;
+        this.loopMax = loopMax;
+    }
+
+    public void setDefaultPolicy(RetryPolicy defaultPolicy) {
+        this.defaultPolicy = defaultPolicy;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public boolean moveTo(String name, Point point, Quaternion orientation) {
+        return moveTo(name, point, orientation, defaultPolicy, null);
+    }
+
+    public boolean moveTo(String name, Point point, Quaternion orientation, RetryPolicy policy) {
+        return moveTo(name, point, orientation, policy, null);
+    }
+
+    /**
+     * 移動します
+     * @param name 記録に使う名前(移動先の名前)
+     * @param policy 失敗したときの再試行の方針
+     * @param replanHook 諦めたときに別の経路を作るフック(nullなら作らない)
+     * @return 移動できた(または方針が結果を受け入れた)場合はtrue
+     */
+    public boolean moveTo(final String name, final Point point, final Quaternion orientation, RetryPolicy policy, ReplanHook replanHook) {
+        Command command = new Command() {
+            @Override
+            public Result run() {
+                return api.moveTo(point, orientation, true);
+            }
+        };
+        Outcome outcome = execute(name, point, command, policy);
+        if (outcome.ok || replanHook == null) {
+            return outcome.ok;
+        }
+
+        // 別の経路で移動し直す(別の経路ではフックを使わない)
+        List<Point> detour = replanHook.replan(name, point, orientation, outcome.result);
+        if (detour == null || detour.isEmpty()) {
+            return false;
+        }
+        Log.i(TAG, name + ": replanned via " + detour.size() + " points");
+        boolean moved = true;
+        for (int i = 0; i < detour.size(); i++) {
+            moved = moveTo(name + "_replan" + i, detour.get(i), orientation, policy, null);
+        }
+        return moved;
+    }
+
+    /**
+     * 経由点を通って最後の点まで移動します
+     * 経由点はKOZを避けるために通過するだけなので、passThroughPolicyで再試行する(近くにいれば次へ進むなど)
+     * 最後の点(撮影する位置など)だけは既定の方針で、きちんと止まるまで再試行する
+     * @param name 記録に使う名前. 経由点には name_via0, name_via1, ... を使う
+     * @param route 経由点のリスト(最後は目的地)
+     * @return 目的地まで移動できた場合はtrue
+     */
+    public boolean moveAlong(String name, List<Point> route, Quaternion orientation, RetryPolicy passThroughPolicy) {
+        return moveAlong(name, route, null, orientation, passThroughPolicy);
+    }
+
+    /**
+     * 経由点を通って最後の点まで移動します
+     * 経由点の姿勢は、startOrientationからorientationへ球面線形補間して少しずつ回す
+     * @param startOrientation 移動を始めるときの姿勢. nullなら経由点でも最後の姿勢を使う
+     */
+    public boolean moveAlong(String name, List<Point> route, Quaternion startOrientation, Quaternion orientation, RetryPolicy passThroughPolicy) {
+        return moveAlong(name, route, startOrientation, orientation, passThroughPolicy, null);
+    }
+
+    /**
+     * 経由点を通って最後の点まで移動します
+     * 最後の点へ再試行しても移動できなかった場合は、replanHookで作った経路で移動し直す
+     * @param replanHook 諦めたときに別の経路を作るフック(nullなら作らない)
+     */
+    public boolean moveAlong(String name, List<Point> route, Quaternion startOrientation, Quaternion orientation,
+                             RetryPolicy passThroughPolicy, ReplanHook replanHook) {
+        for (int i = 0; i < route.size() - 1; i++) {
+            Quaternion viaOrientation = (startOrientation == null)
+                    ? orientation
+                    : LookAtSolver.slerp(startOrientation, orientation, (double) (i + 1) / route.size());
+            moveTo(name + "_via" + i, route.get(i), viaOrientation, passThroughPolicy);
+        }
+        return moveTo(name, route.get(route.size() - 1), orientation, defaultPolicy, replanHook);
+    }
+
+    public boolean flashlightFront(String name, final float power) {
+        return run(name, new Command() {
+            @Override
+            public Result run() {
+                return api.flashlightControlFront(power);
+            }
+        });
+    }
+
+    public boolean flashlightBack(String name, final float power) {
+        return run(name, new Command() {
+            @Override
+            public Result run() {
+                return api.flashlightControlBack(power);
+            }
+        });
+    }
+
+    /**
+     * 移動以外のコマンドを既定の方針で実行します
+     */
+    public boolean run(String name, Command command) {
+        return execute(name, null, command, defaultPolicy).ok;
+    }
+
+    // 実行の結果
+    private static final class Outcome {
+        final Result result;  // 最後の実行結果
+        final boolean ok;     // 成功したか、方針が失敗を受け入れた場合はtrue
+
+        Outcome(Result result, boolean ok) {
+            this.result = result;
+            this.ok = ok;
+        }
+    }
+
+    // 方針に従ってコマンドを実行する
+    private Outcome execute(String name, Point target, Command command, RetryPolicy policy) {
+        long callStart = System.nanoTime();
+        int attempt = 0;
+        boolean accepted = false;
+        boolean aborted = false;
+        Result result;
+        while (true) {
+            long attemptStart = System.nanoTime();
+            result = command.run();
+            ++attempt;
+            boolean succeeded = succeeded(result);
+            metrics.recordAttempt(name, (System.nanoTime() - attemptStart) / 1000000, succeeded, describe(result));
+            if (succeeded) {
+                break;
+            }
+            RetryPolicy.Decision decision = policy.onFailure(name, target, attempt, missionClock.retries(loopMax), result);
+            if (decision == RetryPolicy.Decision.ACCEPT) {
+                accepted = true;
+                break;
+            }
+            if (decision == RetryPolicy.Decision.ABORT) {
+                aborted = true;
+                break;
+            }
+        }
+        long callMillis = (System.nanoTime() - callStart) / 1000000;
+        metrics.recordCall(name, callMillis, accepted, aborted);
+        if (attempt > 1 || !succeeded(result)) {
+            Log.w(TAG, name + ": " + attempt + " attempts, " + callMillis + "ms, " + describe(result)
+                    + (accepted ? " (accepted)" : "") + (aborted ? " (aborted)" : ""));
+        }
+        return new Outcome(result, succeeded(result) || accepted);
+    }
+
+    private static boolean succeeded(Result result) {
+        return result != null && result.hasSucceeded();
+    }
+
+    private static String describe(Result result) {
+        if (result == null) {
+            return "no result";
+        }
+        return result.getStatus() + (result.getMessage() != null ? " " + result.getMessage() : "");
+    }
+}
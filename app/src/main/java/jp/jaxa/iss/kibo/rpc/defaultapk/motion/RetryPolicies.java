@@ -0,0 +1,52 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.motion;
+
+import gov.nasa.arc.astrobee.Kinematics;
+import gov.nasa.arc.astrobee.Result;
+import gov.nasa.arc.astrobee.types.Point;
+import jp.jaxa.iss.kibo.rpc.api.KiboRpcApi;
+
+/**
+ * よく使う再試行の方針
+ */
+public final class RetryPolicies {
+    private RetryPolicies() {}
+
+    private static final RetryPolicy IMMEDIATE = new RetryPolicy() {
+        @Override
+        public Decision onFailure(String name, Point target, int attempt, int maxRetries, Result result) {
+            return attempt <= maxRetries ? Decision.RETRY : Decision.ABORT;
+        }
+    };
+
+    /**
+     * 再試行の回数の上限まで、すぐに再試行する
+     */
+    public static RetryPolicy immediate() {
+        return IMMEDIATE;
+    }
+
+    /**
+     * 移動に失敗しても、ロボットが移動先からtolerance[m]以内にいれば成功とみなして次へ進む
+     * それ以外はすぐに再試行する. 通過するだけの点に使う
+     */
+    public static RetryPolicy relaxedTolerance(final KiboRpcApi api, final double tolerance) {
+        return new RetryPolicy() {
+            @Override
+            public Decision onFailure(String name, Point target, int attempt, int maxRetries, Result result) {
+                if (target != null) {
+                    Kinematics kinematics = api.getRobotKinematics();
+                    if (kinematics != null && kinematics.getPosition() != null) {
+                        Point position = kinematics.getPosition();
+                        double dx = position.getX() - target.getX();
+                        double dy = position.getY() - target.getY();
+                        double dz = position.getZ() - target.getZ();
+                        if (dx * dx + dy * dy + dz * dz <= tolerance * tolerance) {
+                            return Decision.ACCEPT;
+                        }
+                    }
+                }
+                return IMMEDIATE.onFailure(name, target, attempt, maxRetries, result);
+            }
+        };
+    }
+}
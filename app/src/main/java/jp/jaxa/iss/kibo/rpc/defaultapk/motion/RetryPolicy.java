@@ -0,0 +1,24 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.motion;
+
+import gov.nasa.arc.astrobee.Result;
+import gov.nasa.arc.astrobee.types.Point;
+
+/**
+ * コマンドが失敗したときに、再試行するかどうかを決める
+ */
+public interface RetryPolicy {
+    enum Decision {
+        RETRY,   // もう一度実行する
+        ACCEPT,  // 失敗したが、結果を受け入れて次へ進む
+        ABORT    // 諦める
+    }
+
+    /**
+     * @param name コマンドの名前
+     * @param target 移動先(移動以外のコマンドではnull)
+     * @param attempt これまでに実行した回数
+     * @param maxRetries 残り時間に応じた再試行の回数の上限
+     * @param result 最後の実行結果(nullのこともある)
+     */
+    Decision onFailure(String name, Point target, int attempt, int maxRetries, Result result);
+}
@@ -0,0 +1,250 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.planner;
+
+/**
+ * 座標軸に平行な箱の集合をプリミティブ配列で保持し、衝突判定の問い合わせに答えるクラス
+ * 箱ごとに xMin, yMin, zMin, xMax, yMax, zMax の順で1つの配列に詰めている
+ * 問い合わせではオブジェクトを作らない. 複数の点や線分をまとめて問い合わせる場合は、結果を呼び出し側の配列に書き込む
+ */
+public final class BoxSet {
+    private final double[] boxes;
+    private final int size;
+
+    /**
+     * @param boxes {xMin, yMin, zMin, xMax, yMax, zMax}の配列
+     * @param margin 各面を外側に広げる距離(負なら内側に縮める)
+     */
+    public BoxSet(double[][] boxes, double margin) {
+        this.size = boxes.length;
+        this.boxes = new double[6 * size];
+        for (int i = 0; i < size; i++) {
+            for (int k = 0; k < 3; k++) {
+                this.boxes[6 * i + k] = boxes[i][k] - margin;
+                this.boxes[6 * i + 3 + k] = boxes[i][3 + k] + margin;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * i番目の箱の最小の座標を返します
+     * @param axis 0ならx, 1ならy, 2ならz
+     */
+    public double getMin(int i, int axis) {
+        return boxes[6 * i + axis];
+    }
+
+    public double getMax(int i, int axis) {
+        return boxes[6 * i + 3 + axis];
+    }
+
+    /**
+     * 点を内側(境界を含む)に含む最初の箱の番号を返します
+     * @return 箱の番号. どの箱にも含まれなければ-1
+     */
+    public int indexOf(double x, double y, double z) {
+        for (int o = 0; o < boxes.length; o += 6) {
+            if (contains(o, x, y, z)) {
+                return o / 6;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 点がいずれかの箱の内部(境界を含まない)にあればtrueを返します
+     */
+    public boolean containsStrictly(double x, double y, double z) {
+        for (int o = 0; o < boxes.length; o += 6) {
+            if (boxes[o] < x && x < boxes[o + 3]
+                    && boxes[o + 1] < y && y < boxes[o + 4]
+                    && boxes[o + 2] < z && z < boxes[o + 5]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 点aと点bの両方を含む箱があればtrueを返します(箱は凸なので線分全体もその箱の中にある)
+     */
+    public boolean containsSegment(double ax, double ay, double az, double bx, double by, double bz) {
+        for (int o = 0; o < boxes.length; o += 6) {
+            if (contains(o, ax, ay, az) && contains(o, bx, by, bz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 線分(a→b)がいずれかの箱の内部を通ればtrueを返します(境界に触れるだけなら通らないとみなす)
+     */
+    public boolean intersectsSegment(double ax, double ay, double az, double bx, double by, double bz) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double dz = bz - az;
+        for (int o = 0; o < boxes.length; o += 6) {
+            if (intersects(o, 0, ax, ay, az, dx, dy, dz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 半径radiusの球が線分(a→b)に沿って動くとき、いずれかの箱にぶつかればtrueを返します
+     * 箱を半径だけ広げて線分と判定する. 角は丸めないので、角の近くでは少し安全側(ぶつかる側)に判定する
+     */
+    public boolean intersectsSweptSphere(double ax, double ay, double az, double bx, double by, double bz, double radius) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double dz = bz - az;
+        for (int o = 0; o < boxes.length; o += 6) {
+            if (intersects(o, radius, ax, ay, az, dx, dy, dz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 点から最も近い箱までの距離を返します. いずれかの箱の中にあれば0
+     */
+    public double clearance(double x, double y, double z) {
+        double min = Double.MAX_VALUE;
+        for (int o = 0; o < boxes.length; o += 6) {
+            double dx = gap(x, boxes[o], boxes[o + 3]);
+            double dy = gap(y, boxes[o + 1], boxes[o + 4]);
+            double dz = gap(z, boxes[o + 2], boxes[o + 5]);
+            min = Math.min(min, dx * dx + dy * dy + dz * dz);
+        }
+        return Math.sqrt(min);
+    }
+
+    /**
+     * 複数の点について、いずれかの箱の内部(境界を含まない)にあるかをまとめて判定します
+     * @param points 点の座標(x, y, z の順に詰める)
+     * @param out out[k]にk番目の点の結果を書き込む
+     * @return 箱の内部にある点の数
+     */
+    public int containsStrictly(double[] points, int count, boolean[] out) {
+        int hits = 0;
+        for (int k = 0; k < count; k++) {
+            out[k] = containsStrictly(points[3 * k], points[3 * k + 1], points[3 * k + 2]);
+            if (out[k]) {
+                ++hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 点oから複数の点へ向かう線分について、それぞれ両端を含む箱があるかをまとめて判定します
+     * @param ends 線分の終点の座標(x, y, z の順に詰める)
+     * @param from 判定する最初の終点の番号
+     * @param to 判定する最後の終点の次の番号
+     * @param out out[k]にk番目の終点の結果を書き込む(fromからtoの前まで)
+     */
+    public void containsSegments(double ox, double oy, double oz, double[] ends, int from, int to, boolean[] out) {
+        for (int k = from; k < to; k++) {
+            out[k] = false;
+        }
+        for (int o = 0; o < boxes.length; o += 6) {
+            if (!contains(o, ox, oy, oz)) {
+                continue;
+            }
+            for (int k = from; k < to; k++) {
+                if (!out[k]) {
+                    out[k] = contains(o, ends[3 * k], ends[3 * k + 1], ends[3 * k + 2]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 点oから複数の点へ向かう線分について、いずれかの箱の内部を通るかをまとめて判定します
+     * 引数はcontainsSegmentsと同じ
+     */
+    public void intersectsSegments(double ox, double oy, double oz, double[] ends, int from, int to, boolean[] out) {
+        // 箱の数は少ないので、線分ごとに最初にぶつかった箱で打ち切る方が速い
+        for (int k = from; k < to; k++) {
+            double dx = ends[3 * k] - ox;
+            double dy = ends[3 * k + 1] - oy;
+            double dz = ends[3 * k + 2] - oz;
+            out[k] = false;
+            for (int o = 0; o < boxes.length; o += 6) {
+                if (intersects(o, 0, ox, oy, oz, dx, dy, dz)) {
+                    out[k] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 複数の点について、最も近い箱までの距離をまとめて求めます
+     * @param points 点の座標(x, y, z の順に詰める)
+     * @param out out[k]にk番目の点の距離を書き込む
+     */
+    public void clearance(double[] points, int count, double[] out) {
+        for (int k = 0; k < count; k++) {
+            out[k] = clearance(points[3 * k], points[3 * k + 1], points[3 * k + 2]);
+        }
+    }
+
+    // オフセットoの箱が点を内側(境界を含む)に含めばtrue
+    private boolean contains(int o, double x, double y, double z) {
+        return boxes[o] <= x && x <= boxes[o + 3]
+                && boxes[o + 1] <= y && y <= boxes[o + 4]
+                && boxes[o + 2] <= z && z <= boxes[o + 5];
+    }
+
+    // スラブ法: 軸ごとに線分のパラメータの範囲を箱(marginだけ広げる)の内側に絞り、範囲が残れば通る
+    private boolean intersects(int o, double margin, double ax, double ay, double az, double dx, double dy, double dz) {
+        double tMin = 0;
+        double tMax = 1;
+        for (int axis = 0; axis < 3; axis++) {
+            double start = axis == 0 ? ax : axis == 1 ? ay : az;
+            double delta = axis == 0 ? dx : axis == 1 ? dy : dz;
+            double min = boxes[o + axis] - margin;
+            double max = boxes[o + 3 + axis] + margin;
+            if (delta == 0) {
+                if (start <= min || max <= start) {
+                    return false;
+                }
+                continue;
+            }
+            double t0 = (min - start) / delta;
+            double t1 = (max - start) / delta;
+            if (t0 > t1) {
+                double tmp = t0;
+                t0 = t1;
+                t1 = tmp;
+            }
+            if (t0 > tMin) {
+                tMin = t0;
+            }
+            if (t1 < tMax) {
+                tMax = t1;
+            }
+            if (tMin >= tMax) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 1つの軸について、点から区間[min, max]までの距離
+    private static double gap(double value, double min, double max) {
+        if (value < min) {
+            return min - value;
+        }
+        if (value > max) {
+            return value - max;
+        }
+        return 0;
+    }
+}
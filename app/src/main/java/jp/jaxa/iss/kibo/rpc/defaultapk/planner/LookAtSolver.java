@@ -0,0 +1,84 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.planner;
+
+import gov.nasa.arc.astrobee.types.Point;
+import gov.nasa.arc.astrobee.types.Quaternion;
+import jp.jaxa.iss.kibo.rpc.defaultapk.image.CameraMount;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Quat;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Vec3;
+
+/**
+ * カメラの光軸が目標の点を向くロボットの姿勢を求めるクラス
+ * 光軸を目標に向ける姿勢は光軸まわりの回転の分だけあるので、その中で現在の姿勢からの回転が最も小さいものを選ぶ
+ * (現在の光軸の向きから目標の向きへの最短の回転を、現在の姿勢にかける)
+ * カメラはロボットの中心からずれているので、カメラの位置から目標への向きを求め直して数回繰り返す
+ */
+public final class LookAtSolver {
+    // カメラの位置のずれを反映するための繰り返し回数
+    private static final int ITERATIONS = 4;
+    // 向きがほぼ逆向きとみなす内積
+    private static final double OPPOSITE_THRESHOLD = -1 + 1e-9;
+
+    private LookAtSolver() {}
+
+    /**
+     * カメラの光軸がtargetを向く姿勢を求めます
+     * @param position 撮影するときのロボットの位置
+     * @param current 現在の姿勢(ここからの回転が最小になる姿勢を選ぶ). nullなら回転なしの姿勢から求める
+     * @param mount 撮影に使うカメラ
+     * @param target 撮影する点
+     */
+    public static Quaternion solve(Point position, Quaternion current, CameraMount mount, Point target) {
+        Quat attitude = new Quat();
+        if (current != null) {
+            attitude.set(current).normalize();
+        }
+        solve(position.getX(), position.getY(), position.getZ(), mount, target.getX(), target.getY(), target.getZ(), attitude);
+        return attitude.toQuaternion();
+    }
+
+    /**
+     * カメラの光軸が目標の点を向く姿勢を求めます
+     * @param attitude 現在の姿勢(単位四元数)を入れて呼ぶ. 求めた姿勢で書き換える
+     * @return attitude
+     */
+    public static Quat solve(double px, double py, double pz, CameraMount mount, double tx, double ty, double tz, Quat attitude) {
+        Vec3 boresight = new Vec3();
+        Vec3 offset = new Vec3();
+        Vec3 direction = new Vec3();
+        Quat delta = new Quat();
+        for (int i = 0; i < ITERATIONS; i++) {
+            // ISS座標系でのカメラの位置から目標への向き
+            attitude.transform(offset.set(mount.getOffsetX(), mount.getOffsetY(), mount.getOffsetZ()));
+            direction.set(tx - px - offset.x, ty - py - offset.y, tz - pz - offset.z).normalize();
+            // ISS座標系での現在の光軸の向き
+            attitude.transform(boresight.set(mount.getDirection(), 0, 0));
+            shortestArc(boresight, direction, delta);
+            attitude.premul(delta).normalize();
+        }
+        return attitude;
+    }
+
+    /**
+     * fromからtoへの球面線形補間(短い方の回転)を返します. 経由点の姿勢に使う
+     * @param t 0ならfrom, 1ならto
+     */
+    public static Quaternion slerp(Quaternion from, Quaternion to, double t) {
+        return new Quat().set(from).normalize().slerp(new Quat().set(to).normalize(), t).toQuaternion();
+    }
+
+    // 単位ベクトルaをbに重ねる最短の回転をoutに入れる
+    private static void shortestArc(Vec3 a, Vec3 b, Quat out) {
+        double cos = a.dot(b);
+        if (cos < OPPOSITE_THRESHOLD) {
+            // 逆向きの場合は、aに垂直な任意の軸まわりに180度回す
+            if (Math.abs(a.x) < 0.9) {
+                out.set(0, a.z, -a.y, 0);
+            } else {
+                out.set(-a.z, 0, a.x, 0);
+            }
+            out.normalize();
+            return;
+        }
+        out.set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y - a.y * b.x, 1 + cos).normalize();
+    }
+}
@@ -0,0 +1,350 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.planner;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import gov.nasa.arc.astrobee.types.Point;
+import jp.jaxa.iss.kibo.rpc.defaultapk.field.KeepZones;
+
+/**
+ * KIZとKOZを3次元の箱として扱い、KOZを避けてKIZの中を通る最短の経路を求めるクラス
+ * KOZはロボットの半径だけ広げ、KIZはkizMarginだけ縮めて、ロボットの中心が通れる範囲にする
+ *
+ * 生成時に可視グラフを一度だけ作る. グラフの頂点は、箱の面の座標(の少し内側と外側)を組み合わせた格子点のうち
+ * 通れる点で、辺は互いに直線で移動できる頂点の組. 経路の問い合わせでは始点と終点だけをグラフにつないで探索する
+ * 経由点ごとにロボットは止まるので、探索では経由点1つごとにVIA_PENALTYだけ距離を足し、経由点の少ない経路を選ぶ
+ * 求めた経路は、直線で行ける経由点を飛ばし、近すぎる経由点をまとめて経由点の数を減らしてから返す
+ */
+public class PathPlanner {
+    private static final String TAG = "PathPlanner";
+
+    // 箱の面から頂点をずらす距離[m]
+    private static final double NODE_OFFSET = 0.01;
+    // 経由点1つで止まる時間を距離に換算した値[m]
+    private static final double VIA_PENALTY = 0.3;
+    /** これより短い移動は前後の経由点とまとめる[m] */
+    public static final double MERGE_DISTANCE = 0.05;
+
+    private final BoxSet kiz;      // 縮めたKIZ
+    private final BoxSet koz;      // 広げたKOZ
+    private final double[] nodes;  // 頂点の座標(x, y, z の順に詰める)
+    private final int numNodes;
+    private final int[][] neighbors;      // 頂点ごとの隣接頂点
+    private final double[][] edgeLengths; // 頂点ごとの辺の長さ
+
+    /**
+     * @param robotRadius KOZを広げる距離[m]
+     * @param kizMargin KIZを縮める距離[m]
+     */
+    public PathPlanner(double robotRadius, double kizMargin) {
+        long startTime = System.nanoTime();
+        kiz = new BoxSet(KeepZones.KIZ, -kizMargin);
+        koz = new BoxSet(KeepZones.KOZ, robotRadius);
+
+        nodes = createNodes();
+        numNodes = nodes.length / 3;
+
+        // 可視グラフを作る. 頂点iから後ろの頂点への線分をまとめて判定する
+        List<List<Integer>> adjacency = new ArrayList<>(numNodes);
+        for (int i = 0; i < numNodes; i++) {
+            adjacency.add(new ArrayList<Integer>());
+        }
+        boolean[] visible = new boolean[numNodes];
+        boolean[] work = new boolean[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            findVisible(nodes[3 * i], nodes[3 * i + 1], nodes[3 * i + 2], i + 1, visible, work);
+            for (int j = i + 1; j < numNodes; j++) {
+                if (visible[j]) {
+                    adjacency.get(i).add(j);
+                    adjacency.get(j).add(i);
+                }
+            }
+        }
+        neighbors = new int[numNodes][];
+        edgeLengths = new double[numNodes][];
+        int numEdges = 0;
+        for (int i = 0; i < numNodes; i++) {
+            List<Integer> list = adjacency.get(i);
+            neighbors[i] = new int[list.size()];
+            edgeLengths[i] = new double[list.size()];
+            for (int k = 0; k < list.size(); k++) {
+                int j = list.get(k);
+                neighbors[i][k] = j;
+                edgeLengths[i][k] = distance(nodes, i, nodes, j);
+            }
+            numEdges += list.size();
+        }
+        Log.i(TAG, "visibility graph: " + numNodes + " nodes, " + numEdges / 2 + " edges, "
+                + (System.nanoTime() - startTime) / 1000000 + "ms");
+    }
+
+    /**
+     * 点がKIZの中にあり、KOZの外にあればtrueを返します
+     */
+    public boolean isFree(double x, double y, double z) {
+        return kiz.indexOf(x, y, z) >= 0 && !koz.containsStrictly(x, y, z);
+    }
+
+    /**
+     * 線分全体が1つのKIZの中にあり、どのKOZも通らなければtrueを返します
+     */
+    public boolean isSegmentFree(double ax, double ay, double az, double bx, double by, double bz) {
+        return kiz.containsSegment(ax, ay, az, bx, by, bz) && !koz.intersectsSegment(ax, ay, az, bx, by, bz);
+    }
+
+    /**
+     * 点から最も近いKOZ(広げたもの)までの距離を返します
+     */
+    public double clearance(double x, double y, double z) {
+        return koz.clearance(x, y, z);
+    }
+
+    /**
+     * fromからtoまでの最短の経路を求めます
+     * @return 経由点のリスト(fromを含まず、最後はto). 経路がない場合はnull
+     */
+    public List<Point> plan(Point from, Point to) {
+        double[] path = plan(from.getX(), from.getY(), from.getZ(), to.getX(), to.getY(), to.getZ());
+        if (path == null) {
+            return null;
+        }
+        List<Point> points = new ArrayList<>(path.length / 3);
+        for (int i = 0; i < path.length; i += 3) {
+            points.add(new Point(path[i], path[i + 1], path[i + 2]));
+        }
+        return points;
+    }
+
+    /**
+     * fromからtoまでの最短の経路を求めます
+     * @return 経由点の座標(x, y, z の順に詰める. fromを含まず、最後はto). 経路がない場合はnull
+     */
+    public double[] plan(double fromX, double fromY, double fromZ, double toX, double toY, double toZ) {
+        if (isSegmentFree(fromX, fromY, fromZ, toX, toY, toZ)) {
+            return new double[]{toX, toY, toZ};
+        }
+
+        // 始点をnumNodes番、終点をnumNodes + 1番としてダイクストラ法で探索する(頂点が千個程度なので配列で十分速い)
+        int start = numNodes;
+        int goal = numNodes + 1;
+        double[] endpoints = {fromX, fromY, fromZ, toX, toY, toZ};
+        boolean[] fromStart = new boolean[numNodes];
+        boolean[] toGoal = new boolean[numNodes];
+        boolean[] work = new boolean[numNodes];
+        findVisible(fromX, fromY, fromZ, 0, fromStart, work);
+        findVisible(toX, toY, toZ, 0, toGoal, work);
+
+        double[] dist = new double[numNodes + 2];
+        int[] prev = new int[numNodes + 2];
+        boolean[] done = new boolean[numNodes + 2];
+        Arrays.fill(dist, Double.MAX_VALUE);
+        Arrays.fill(prev, -1);
+        dist[start] = 0;
+        for (int i = 0; i < numNodes; i++) {
+            if (fromStart[i]) {
+                dist[i] = distance(endpoints, 0, nodes, i) + VIA_PENALTY;
+                prev[i] = start;
+            }
+        }
+        done[start] = true;
+        while (true) {
+            int current = -1;
+            for (int i = 0; i < numNodes + 2; i++) {
+                if (!done[i] && dist[i] < Double.MAX_VALUE && (current < 0 || dist[i] < dist[current])) {
+                    current = i;
+                }
+            }
+            if (current < 0) {
+                Log.w(TAG, "no path found");
+                return null;
+            }
+            if (current == goal) {
+                break;
+            }
+            done[current] = true;
+            for (int k = 0; k < neighbors[current].length; k++) {
+                int next = neighbors[current][k];
+                double d = dist[current] + edgeLengths[current][k] + VIA_PENALTY;
+                if (d < dist[next]) {
+                    dist[next] = d;
+                    prev[next] = current;
+                }
+            }
+            if (toGoal[current]) {
+                double d = dist[current] + distance(nodes, current, endpoints, 1);
+                if (d < dist[goal]) {
+                    dist[goal] = d;
+                    prev[goal] = current;
+                }
+            }
+        }
+
+        // 終点から辿って経路を作る
+        List<Integer> reversed = new ArrayList<>();
+        for (int i = prev[goal]; i != start; i = prev[i]) {
+            reversed.add(i);
+        }
+        double[] path = new double[3 * (reversed.size() + 1)];
+        for (int k = 0; k < reversed.size(); k++) {
+            int i = reversed.get(reversed.size() - 1 - k);
+            path[3 * k] = nodes[3 * i];
+            path[3 * k + 1] = nodes[3 * i + 1];
+            path[3 * k + 2] = nodes[3 * i + 2];
+        }
+        path[path.length - 3] = toX;
+        path[path.length - 2] = toY;
+        path[path.length - 1] = toZ;
+        return merge(fromX, fromY, fromZ, simplify(fromX, fromY, fromZ, path));
+    }
+
+    /**
+     * 経路の経由点を減らします
+     * 今いる点から直線で(KIZの中を通り、KOZを通らずに)行ける最も遠い経由点まで飛ばすことで、
+     * 一直線上に並んだ点や、近すぎて意味のない点をまとめる
+     * @param path 経由点の座標(x, y, z の順に詰める. 始点を含まず、最後は終点)
+     * @return 減らした経由点の座標(最後は終点のまま)
+     */
+    public double[] simplify(double fromX, double fromY, double fromZ, double[] path) {
+        int n = path.length / 3;
+        double[] result = new double[path.length];
+        int count = 0;
+        double x = fromX, y = fromY, z = fromZ;
+        int next = 0;
+        while (next < n) {
+            // 直線で行ける最も遠い経由点を探す(nextへは必ず行ける)
+            int farthest = next;
+            for (int j = n - 1; j > next; j--) {
+                if (isSegmentFree(x, y, z, path[3 * j], path[3 * j + 1], path[3 * j + 2])) {
+                    farthest = j;
+                    break;
+                }
+            }
+            x = path[3 * farthest];
+            y = path[3 * farthest + 1];
+            z = path[3 * farthest + 2];
+            result[3 * count] = x;
+            result[3 * count + 1] = y;
+            result[3 * count + 2] = z;
+            ++count;
+            next = farthest + 1;
+        }
+        return Arrays.copyOf(result, 3 * count);
+    }
+
+    /**
+     * 前の点からMERGE_DISTANCEより近い経由点を、前後の点とまとめます
+     * 近い2点(前の点a, 経由点b)のどちらかを取り除くか中点に置き換え、つないだ線分が通れるものを使う
+     * @param path 経由点の座標(x, y, z の順に詰める. 始点を含まず、最後は終点). 終点は動かさない
+     * @return まとめた経由点の座標
+     */
+    public double[] merge(double fromX, double fromY, double fromZ, double[] path) {
+        // 始点を先頭に加えて扱う
+        List<double[]> points = new ArrayList<>(path.length / 3 + 1);
+        points.add(new double[]{fromX, fromY, fromZ});
+        for (int i = 0; i < path.length; i += 3) {
+            points.add(new double[]{path[i], path[i + 1], path[i + 2]});
+        }
+        int i = 1;
+        while (i < points.size()) {
+            double[] a = points.get(i - 1);
+            double[] b = points.get(i);
+            if (length(a, b) >= MERGE_DISTANCE) {
+                ++i;
+                continue;
+            }
+            boolean aIsFixed = (i - 1 == 0);
+            boolean bIsFixed = (i == points.size() - 1);
+            double[] before = aIsFixed ? null : points.get(i - 2);
+            double[] after = bIsFixed ? null : points.get(i + 1);
+            if (!bIsFixed && isSegmentFree(a, after)) {
+                // bを取り除く
+                points.remove(i);
+            } else if (!aIsFixed && isSegmentFree(before, b)) {
+                // aを取り除く
+                points.remove(i - 1);
+                i = Math.max(1, i - 1);
+            } else if (!aIsFixed && !bIsFixed) {
+                double[] mid = {(a[0] + b[0]) / 2, (a[1] + b[1]) / 2, (a[2] + b[2]) / 2};
+                if (isSegmentFree(before, mid) && isSegmentFree(mid, after)) {
+                    points.set(i - 1, mid);
+                    points.remove(i);
+                } else {
+                    ++i;
+                }
+            } else {
+                ++i;
+            }
+        }
+        double[] result = new double[3 * (points.size() - 1)];
+        for (int k = 1; k < points.size(); k++) {
+            System.arraycopy(points.get(k), 0, result, 3 * (k - 1), 3);
+        }
+        return result;
+    }
+
+    private boolean isSegmentFree(double[] a, double[] b) {
+        return isSegmentFree(a[0], a[1], a[2], b[0], b[1], b[2]);
+    }
+
+    private static double length(double[] a, double[] b) {
+        return distance(a, 0, b, 0);
+    }
+
+    // 点oからfrom番以降の各頂点へ直線で移動できるかをまとめて判定し、visibleに書き込む(workは作業用)
+    private void findVisible(double ox, double oy, double oz, int from, boolean[] visible, boolean[] work) {
+        kiz.containsSegments(ox, oy, oz, nodes, from, numNodes, visible);
+        koz.intersectsSegments(ox, oy, oz, nodes, from, numNodes, work);
+        for (int k = from; k < numNodes; k++) {
+            visible[k] = visible[k] && !work[k];
+        }
+    }
+
+    // 箱の面の座標の少し内側と外側を軸ごとに集め、その組み合わせのうち通れる点を頂点にする
+    private double[] createNodes() {
+        TreeSet<Double> xs = new TreeSet<>();
+        TreeSet<Double> ys = new TreeSet<>();
+        TreeSet<Double> zs = new TreeSet<>();
+        for (BoxSet boxes : new BoxSet[]{kiz, koz}) {
+            for (int i = 0; i < boxes.size(); i++) {
+                addOffsets(xs, boxes.getMin(i, 0), boxes.getMax(i, 0));
+                addOffsets(ys, boxes.getMin(i, 1), boxes.getMax(i, 1));
+                addOffsets(zs, boxes.getMin(i, 2), boxes.getMax(i, 2));
+            }
+        }
+        List<Double> points = new ArrayList<>();
+        for (double x : xs) {
+            for (double y : ys) {
+                for (double z : zs) {
+                    if (isFree(x, y, z)) {
+                        points.add(x);
+                        points.add(y);
+                        points.add(z);
+                    }
+                }
+            }
+        }
+        double[] result = new double[points.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = points.get(i);
+        }
+        return result;
+    }
+
+    private static void addOffsets(TreeSet<Double> values, double min, double max) {
+        values.add(min - NODE_OFFSET);
+        values.add(min + NODE_OFFSET);
+        values.add(max - NODE_OFFSET);
+        values.add(max + NODE_OFFSET);
+    }
+
+    private static double distance(double[] a, int i, double[] b, int j) {
+        double dx = a[3 * i] - b[3 * j];
+        double dy = a[3 * i + 1] - b[3 * j + 1];
+        double dz = a[3 * i + 2] - b[3 * j + 2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
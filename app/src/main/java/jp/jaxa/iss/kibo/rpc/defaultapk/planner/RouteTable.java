@@ -0,0 +1,71 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.planner;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import gov.nasa.arc.astrobee.types.Point;
+
+/**
+ * 名前を付けた地点(各エリアの撮影位置や宇宙飛行士の前)の全ての組について、経路を先に求めておく表
+ * ミッション開始前の待ち時間に作っておけば、ミッション中の経路の問い合わせは表を引くだけで済む
+ */
+public class RouteTable {
+    private static final String TAG = "RouteTable";
+
+    private final PathPlanner planner;
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final List<List<Point>> routes;  // from * size + to 番目に経路を入れる(経路がなければnull)
+    private final int size;
+
+    /**
+     * @param waypoints 地点の名前と位置
+     */
+    public RouteTable(PathPlanner planner, Map<String, Point> waypoints) {
+        long startTime = System.nanoTime();
+        this.planner = planner;
+        this.size = waypoints.size();
+        Point[] points = new Point[size];
+        int index = 0;
+        for (Map.Entry<String, Point> entry : waypoints.entrySet()) {
+            indices.put(entry.getKey(), index);
+            points[index] = entry.getValue();
+            ++index;
+        }
+
+        routes = new ArrayList<>(Collections.nCopies(size * size, (List<Point>) null));
+        for (int from = 0; from < size; from++) {
+            for (int to = 0; to < size; to++) {
+                if (from == to) {
+                    continue;
+                }
+                List<Point> route = planner.plan(points[from], points[to]);
+                if (route != null) {
+                    routes.set(from * size + to, Collections.unmodifiableList(route));
+                }
+            }
+        }
+        Log.i(TAG, size + " waypoints, " + size * (size - 1) + " routes, " + (System.nanoTime() - startTime) / 1000000 + "ms");
+    }
+
+    /**
+     * fromからtoへの経路を返します
+     * @return 経由点のリスト(fromを含まず、最後はto). 地点が表にないか、経路がない場合はnull
+     */
+    public List<Point> get(String from, String to) {
+        Integer fromIndex = indices.get(from);
+        Integer toIndex = indices.get(to);
+        if (fromIndex == null || toIndex == null || fromIndex.equals(toIndex)) {
+            return null;
+        }
+        return routes.get(fromIndex * size + toIndex);
+    }
+
+    public PathPlanner getPlanner() {
+        return planner;
+    }
+}
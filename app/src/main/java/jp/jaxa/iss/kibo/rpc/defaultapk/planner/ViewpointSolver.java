@@ -0,0 +1,147 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.planner;
+
+import org.opencv.core.Size;
+
+import gov.nasa.arc.astrobee.types.Point;
+import jp.jaxa.iss.kibo.rpc.defaultapk.field.Area;
+import jp.jaxa.iss.kibo.rpc.defaultapk.field.KeepZones;
+import jp.jaxa.iss.kibo.rpc.defaultapk.image.CameraModel;
+import jp.jaxa.iss.kibo.rpc.defaultapk.image.CameraMount;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Axis;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Quat;
+import jp.jaxa.iss.kibo.rpc.defaultapk.math.Vec3;
+
+/**
+ * 台紙を撮影するロボットの位置と姿勢を求めるクラス
+ * カメラを台紙の法線上に置き、台紙が目標の大きさ(検出器の入力サイズなど)[px]で写る距離を焦点距離から求める
+ * ロボットの中心はカメラの位置から取り付け位置のずれを引いた点で、KIZの中かつKOZの外でなければならない
+ * さらに、その位置と姿勢で台紙の四隅が画像の内側に写ることを確かめる
+ * 条件を満たさない場合は距離を少しずつ遠ざけ、それでもだめなら近づけて探す
+ */
+public class ViewpointSolver {
+    // 距離を変えて探すときの刻み[m]
+    private static final double DISTANCE_STEP = 0.01;
+    // 遠ざけて探すときの、求めた距離に対する上限の倍率
+    private static final double MAX_DISTANCE_RATIO = 2.0;
+    // 台紙が画像を占める割合の上限(これより近いと台紙がはみ出しやすい)
+    private static final double MAX_FILL_RATIO = 0.8;
+    // 台紙の四隅を写す範囲として、画像の端から空ける割合(姿勢の誤差と歪みの分)
+    private static final double IMAGE_MARGIN_RATIO = 0.05;
+    // カメラの位置と姿勢を合わせるための繰り返し回数
+    private static final int ITERATIONS = 3;
+
+    private final BoxSet kiz;  // 縮めたKIZ
+    private final BoxSet koz;  // 広げたKOZ
+
+    /**
+     * @param robotRadius KOZを広げる距離[m]
+     * @param kizMargin KIZを縮める距離[m]
+     */
+    public ViewpointSolver(double robotRadius, double kizMargin) {
+        kiz = new BoxSet(KeepZones.KIZ, -kizMargin);
+        koz = new BoxSet(KeepZones.KOZ, robotRadius);
+    }
+
+    /**
+     * 台紙を撮影するロボットの位置を求めます
+     * @param cameraModel 撮影するカメラの内部パラメータ
+     * @param imageSize 画像のサイズ
+     * @param sheetPixels 台紙を写したい大きさ[px]. 検出器の入力サイズを渡すと、切り抜いた台紙を拡大縮小せずに済む
+     * @param attitude 直前の姿勢を入れて呼ぶ(ここから最小の回転でカメラを台紙に向ける). 求まった場合は撮影するときの姿勢で書き換える
+     * @return ロボットの位置. 条件を満たす位置がなければnull
+     */
+    public Point solve(Area area, CameraMount mount, CameraModel cameraModel, Size imageSize, Size sheetPixels, Quat attitude) {
+        return solve(area, mount,
+                cameraModel.getFocalLengthX(), cameraModel.getFocalLengthY(),
+                cameraModel.getPrincipalPointX(), cameraModel.getPrincipalPointY(),
+                imageSize.width, imageSize.height, sheetPixels.width, sheetPixels.height, attitude);
+    }
+
+    /**
+     * 台紙を撮影するロボットの位置を求めます(内部パラメータを数値で渡す版)
+     * @param fx x方向の焦点距離[px]
+     * @param fy y方向の焦点距離[px]
+     * @param cx 画像中心のx座標[px]
+     * @param cy 画像中心のy座標[px]
+     */
+    public Point solve(Area area, CameraMount mount, double fx, double fy, double cx, double cy,
+                       double width, double height, double sheetWidth, double sheetHeight, Quat attitude) {
+        double sheetSize = 2 * Area.SHEET_HALF_SIZE;
+        // 台紙が目標の大きさ以下で写る距離. 目標が画像に対して大きすぎる場合はMAX_FILL_RATIOで抑える
+        double preferred = Math.max(fx * sheetSize / Math.min(sheetWidth, MAX_FILL_RATIO * width),
+                fy * sheetSize / Math.min(sheetHeight, MAX_FILL_RATIO * height));
+        double minimum = Math.max(fx * sheetSize / (MAX_FILL_RATIO * width), fy * sheetSize / (MAX_FILL_RATIO * height));
+
+        double[] intrinsics = {fx, fy, cx, cy, width, height};
+        Quat candidate = new Quat();
+        double[] position = new double[3];
+        for (double distance = preferred; distance <= preferred * MAX_DISTANCE_RATIO; distance += DISTANCE_STEP) {
+            if (tryDistance(area, mount, intrinsics, distance, candidate.set(attitude), position)) {
+                attitude.set(candidate);
+                return new Point(position[0], position[1], position[2]);
+            }
+        }
+        for (double distance = preferred - DISTANCE_STEP; distance >= minimum; distance -= DISTANCE_STEP) {
+            if (tryDistance(area, mount, intrinsics, distance, candidate.set(attitude), position)) {
+                attitude.set(candidate);
+                return new Point(position[0], position[1], position[2]);
+            }
+        }
+        return null;
+    }
+
+    // カメラを台紙からdistanceだけ離したときのロボットの位置をpositionに、姿勢をattitudeに入れ、条件を満たせばtrueを返す
+    private boolean tryDistance(Area area, CameraMount mount, double[] intrinsics, double distance, Quat attitude, double[] position) {
+        Axis normal = area.getNormal();
+        double cx = area.getX() + normal.getX() * distance;
+        double cy = area.getY() + normal.getY() * distance;
+        double cz = area.getZ() + normal.getZ() * distance;
+        Vec3 offset = new Vec3();
+        for (int i = 0; i < ITERATIONS; i++) {
+            // カメラが(cx, cy, cz)に来るロボットの位置を、今の姿勢から求めて姿勢を合わせ直す
+            // 取り付け位置のずれの向きは姿勢で変わるので、位置と姿勢を交互に求める
+            attitude.transform(offset.set(mount.getOffsetX(), mount.getOffsetY(), mount.getOffsetZ()));
+            position[0] = cx - offset.x;
+            position[1] = cy - offset.y;
+            position[2] = cz - offset.z;
+            LookAtSolver.solve(position[0], position[1], position[2], mount, area.getX(), area.getY(), area.getZ(), attitude);
+        }
+        return kiz.indexOf(position[0], position[1], position[2]) >= 0
+                && !koz.containsStrictly(position[0], position[1], position[2])
+                && isSheetInImage(area, mount, intrinsics, attitude, position);
+    }
+
+    // 台紙の四隅が画像の内側(端からIMAGE_MARGIN_RATIOだけ空けた範囲)に写ればtrue. 歪みは考えない
+    private static boolean isSheetInImage(Area area, CameraMount mount, double[] intrinsics, Quat attitude, double[] position) {
+        double fx = intrinsics[0], fy = intrinsics[1], cx = intrinsics[2], cy = intrinsics[3];
+        double width = intrinsics[4], height = intrinsics[5];
+        double marginU = width * IMAGE_MARGIN_RATIO;
+        double marginV = height * IMAGE_MARGIN_RATIO;
+
+        // 台紙の面内の2軸
+        Axis normal = area.getNormal();
+        double[] u = normal.getX() != 0 ? new double[]{0, 1, 0} : new double[]{1, 0, 0};
+        double[] v = normal.getZ() != 0 ? new double[]{0, 1, 0} : new double[]{0, 0, 1};
+        double h = Area.SHEET_HALF_SIZE;
+        Vec3 body = new Vec3();
+        double[] camera = new double[3];
+        for (int su = -1; su <= 1; su += 2) {
+            for (int sv = -1; sv <= 1; sv += 2) {
+                body.set(area.getX() + h * (su * u[0] + sv * v[0]) - position[0],
+                        area.getY() + h * (su * u[1] + sv * v[1]) - position[1],
+                        area.getZ() + h * (su * u[2] + sv * v[2]) - position[2]);
+                attitude.inverseTransform(body);
+                mount.bodyToCamera(body.x, body.y, body.z, camera);
+                if (camera[2] <= 0) {
+                    return false;
+                }
+                double pu = fx * camera[0] / camera[2] + cx;
+                double pv = fy * camera[1] / camera[2] + cy;
+                if (pu < marginU || pu > width - marginU || pv < marginV || pv > height - marginV) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,51 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DetectionResultTest {
+    private static final List<String> LABELS = Arrays.asList("beaker", "goggle", "hammer");
+
+    @Test
+    public void classCountIsCountedOnAdd() {
+        // 容量を超えて追加しても数え漏れがないこと
+        DetectionResult result = new DetectionResult(LABELS, LABELS.size(), 1);
+        result.add(0, 0, 0.1F, 0.1F, 0.9F, 1);
+        result.add(0, 0, 0.1F, 0.1F, 0.8F, 1);
+        result.add(0, 0, 0.1F, 0.1F, 0.7F, 2);
+
+        assertEquals(3, result.size());
+        assertEquals(0, result.getClassCount(0));
+        assertEquals(2, result.getClassCount(1));
+        assertEquals(1, result.getClassCount(2));
+        assertEquals("goggle", result.getClassName(result.getMaxScoreIndex()));
+    }
+
+    @Test
+    public void classCountIsRecountedOnTruncate() {
+        DetectionResult result = new DetectionResult(LABELS, LABELS.size(), 4);
+        result.add(0, 0, 0.1F, 0.1F, 0.9F, 0);
+        result.add(0, 0, 0.1F, 0.1F, 0.8F, 1);
+        result.add(0, 0, 0.1F, 0.1F, 0.7F, 2);
+        result.move(2, 1);
+        result.truncate(2);
+
+        assertEquals(1, result.getClassCount(0));
+        assertEquals(0, result.getClassCount(1));
+        assertEquals(1, result.getClassCount(2));
+    }
+
+    @Test
+    public void classCountIsResetOnClear() {
+        DetectionResult result = new DetectionResult(LABELS, LABELS.size(), 4);
+        result.add(0, 0, 0.1F, 0.1F, 0.9F, 0);
+        result.clear();
+
+        assertEquals(0, result.size());
+        assertEquals(0, result.getClassCount(0));
+    }
+}
@@ -0,0 +1,107 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NonMaxSuppressionTest {
+    private static final List<String> LABELS = Arrays.asList("beaker", "goggle");
+
+    private static DetectionResult result(float... boxes) {
+        DetectionResult result = new DetectionResult(LABELS, LABELS.size(), 2);
+        for (int i = 0; i < boxes.length; i += 6) {
+            result.add(boxes[i], boxes[i + 1], boxes[i + 2], boxes[i + 3], boxes[i + 4], (int) boxes[i + 5]);
+        }
+        return result;
+    }
+
+    @Test
+    public void overlappingBoxIsSuppressed() {
+        DetectionResult boxes = result(
+                0.10F, 0.10F, 0.30F, 0.30F, 0.6F, 0,
+                0.11F, 0.11F, 0.31F, 0.31F, 0.9F, 0,
+                0.60F, 0.60F, 0.80F, 0.80F, 0.5F, 0);
+        new NonMaxSuppression(0.5F).apply(boxes);
+
+        assertEquals(2, boxes.size());
+        // 残った結果は元の順番のまま前に詰められる
+        assertEquals(0.9F, boxes.getScore(0), 0);
+        assertEquals(0.5F, boxes.getScore(1), 0);
+        assertEquals(2, boxes.getClassCount(0));
+    }
+
+    @Test
+    public void classAwareKeepsOverlappingBoxesOfOtherClasses() {
+        DetectionResult boxes = result(
+                0.10F, 0.10F, 0.30F, 0.30F, 0.9F, 0,
+                0.10F, 0.10F, 0.30F, 0.30F, 0.8F, 1);
+        NonMaxSuppression nms = new NonMaxSuppression(0.5F);
+        nms.setClassAware(true);
+        nms.apply(boxes);
+        assertEquals(2, boxes.size());
+
+        nms.setClassAware(false);
+        nms.apply(boxes);
+        assertEquals(1, boxes.size());
+        assertEquals(0, boxes.getClassId(0));
+    }
+
+    @Test
+    public void topKDropsLowScores() {
+        DetectionResult boxes = result(
+                0.0F, 0.0F, 0.1F, 0.1F, 0.3F, 0,
+                0.2F, 0.2F, 0.3F, 0.3F, 0.9F, 0,
+                0.4F, 0.4F, 0.5F, 0.5F, 0.6F, 1);
+        NonMaxSuppression nms = new NonMaxSuppression(0.5F);
+        nms.setTopK(2);
+        nms.apply(boxes);
+
+        assertEquals(2, boxes.size());
+        assertEquals(0.9F, boxes.getScore(0), 0);
+        assertEquals(0.6F, boxes.getScore(1), 0);
+    }
+
+    @Test
+    public void containedBoxIsSuppressedOnlyWithContainmentThreshold() {
+        // IoUは0.25だが、小さい方のボックスは全体が含まれている
+        DetectionResult boxes = result(
+                0.0F, 0.0F, 0.4F, 0.4F, 0.9F, 0,
+                0.0F, 0.0F, 0.2F, 0.2F, 0.8F, 0);
+        NonMaxSuppression nms = new NonMaxSuppression(0.5F);
+        nms.apply(boxes);
+        assertEquals(2, boxes.size());
+
+        nms.setContainmentThreshold(0.6F);
+        nms.apply(boxes);
+        assertEquals(1, boxes.size());
+        assertEquals(0.9F, boxes.getScore(0), 0);
+    }
+
+    @Test
+    public void softNmsLowersOverlappingScores() {
+        DetectionResult boxes = result(
+                0.10F, 0.10F, 0.30F, 0.30F, 0.9F, 0,
+                0.12F, 0.10F, 0.32F, 0.30F, 0.8F, 0,
+                0.60F, 0.60F, 0.80F, 0.80F, 0.7F, 0);
+        NonMaxSuppression nms = new NonMaxSuppression(0.5F);
+        nms.setSoftNms(true, 0.5F);
+        nms.setScoreThreshold(0.1F);
+        nms.apply(boxes);
+
+        assertEquals(3, boxes.size());
+        assertEquals(0.9F, boxes.getScore(0), 0);
+        assertTrue(boxes.getScore(1) < 0.8F);
+        assertEquals(0.7F, boxes.getScore(2), 0);
+    }
+
+    @Test
+    public void emptyResultIsUnchanged() {
+        DetectionResult boxes = result();
+        new NonMaxSuppression(0.5F).apply(boxes);
+        assertEquals(0, boxes.size());
+    }
+}
@@ -0,0 +1,66 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TiledDetectorTest {
+    private static final List<String> LABELS = Arrays.asList("beaker", "goggle");
+
+    // 1280x960の画像を横に2枚(重なりあり)のタイルに分けた場合
+    private static final List<Rect> TILES = Arrays.asList(new Rect(0, 0, 800, 960), new Rect(480, 0, 800, 960));
+
+    private static NonMaxSuppression createNms() {
+        NonMaxSuppression nms = new NonMaxSuppression(0.4F);
+        nms.setClassAware(true);
+        nms.setContainmentThreshold(0.6F);
+        return nms;
+    }
+
+    private static DetectionResult result(float... boxes) {
+        DetectionResult result = new DetectionResult(LABELS, LABELS.size(), 4);
+        for (int i = 0; i < boxes.length; i += 6) {
+            result.add(boxes[i], boxes[i + 1], boxes[i + 2], boxes[i + 3], boxes[i + 4], (int) boxes[i + 5]);
+        }
+        return result;
+    }
+
+    @Test
+    public void itemStraddlingSeamIsCountedOnce() {
+        // x = 700〜900px のアイテム. 左のタイルでは右端(800px)で切れ、右のタイルと画像全体では全体が写る
+        DetectionResult left = result(700F / 800, 0.4F, 1.0F, 0.5F, 0.7F, 0);
+        DetectionResult right = result(220F / 800, 0.4F, 420F / 800, 0.5F, 0.8F, 0);
+        DetectionResult full = result(700F / 1280, 0.4F, 900F / 1280, 0.5F, 0.6F, 0);
+
+        DetectionResult merged = TiledDetector.merge(TILES, Arrays.asList(left, right, full), 1280, 960,
+                true, createNms(), LABELS, LABELS.size());
+        assertEquals(1, merged.getClassCount(0));
+    }
+
+    @Test
+    public void partialBoxContainedInFullBoxIsSuppressed() {
+        // 境界で切れたボックスを取り除かない場合も、全体のボックスに含まれていればNMSで抑制される
+        DetectionResult left = result(700F / 800, 0.4F, 1.0F, 0.5F, 0.5F, 0);
+        DetectionResult right = result(0, 0, 0.01F, 0.01F, 0.1F, 1);
+        DetectionResult full = result(700F / 1280, 0.4F, 900F / 1280, 0.5F, 0.9F, 0);
+
+        DetectionResult merged = TiledDetector.merge(TILES, Arrays.asList(left, right, full), 1280, 960,
+                false, createNms(), LABELS, LABELS.size());
+        assertEquals(1, merged.getClassCount(0));
+        assertEquals(1, merged.getClassCount(1));
+    }
+
+    @Test
+    public void separateItemsOnBothSidesOfSeamAreKept() {
+        DetectionResult left = result(0.1F, 0.1F, 0.2F, 0.2F, 0.9F, 0);
+        DetectionResult right = result(0.8F, 0.8F, 0.9F, 0.9F, 0.9F, 0);
+
+        DetectionResult merged = TiledDetector.merge(TILES, Arrays.asList(left, right), 1280, 960,
+                true, createNms(), LABELS, LABELS.size());
+        assertEquals(2, merged.getClassCount(0));
+    }
+}
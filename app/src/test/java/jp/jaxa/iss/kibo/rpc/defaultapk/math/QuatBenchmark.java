@@ -0,0 +1,112 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.math;
+
+import java.util.Random;
+
+import gov.nasa.arc.astrobee.types.Quaternion;
+
+/**
+ * QuatとVec3の演算と、以前のQuaternionUtil(Quaternionを毎回作る)の速さを比べるJVM上のベンチマーク
+ * JMHは使えないので、ウォームアップの後に何回か計測して最も速い値を出す
+ * 実行: java -cp <テストのクラスパス> jp.jaxa.iss.kibo.rpc.defaultapk.math.QuatBenchmark
+ */
+public final class QuatBenchmark {
+    private static final int COUNT = 4096;
+    private static final int WARM_UP_ROUNDS = 20;
+    private static final int ROUNDS = 20;
+
+    private QuatBenchmark() {}
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        final Quaternion[] quaternions = new Quaternion[COUNT];
+        final Quat[] quats = new Quat[COUNT];
+        final double[] vectors = new double[3 * COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            quats[i] = new Quat().setAxisAngle(random.nextGaussian(), random.nextGaussian(), random.nextGaussian(), Math.PI * random.nextDouble());
+            quaternions[i] = quats[i].toQuaternion();
+            vectors[3 * i] = random.nextGaussian();
+            vectors[3 * i + 1] = random.nextGaussian();
+            vectors[3 * i + 2] = random.nextGaussian();
+        }
+
+        report("compose: QuaternionUtil.product (old)", new Body() {
+            @Override
+            public double run() {
+                Quaternion q = quaternions[0];
+                for (int i = 1; i < COUNT; i++) {
+                    q = QuaternionUtil.product(q, quaternions[i]);
+                }
+                return q.getW();
+            }
+        });
+        final Quat composed = new Quat();
+        report("compose: Quat.mul", new Body() {
+            @Override
+            public double run() {
+                composed.set(quats[0]);
+                for (int i = 1; i < COUNT; i++) {
+                    composed.mul(quats[i]);
+                }
+                return composed.w;
+            }
+        });
+
+        report("rotate: q * v * q^-1 with QuaternionUtil (old)", new Body() {
+            @Override
+            public double run() {
+                double sum = 0;
+                for (int i = 0; i < COUNT; i++) {
+                    Quaternion q = quaternions[i];
+                    Quaternion v = new Quaternion((float) vectors[3 * i], (float) vectors[3 * i + 1], (float) vectors[3 * i + 2], 0);
+                    Quaternion rotated = QuaternionUtil.product(QuaternionUtil.product(q, v), QuaternionUtil.getConjugateValueOf(q));
+                    sum += rotated.getX();
+                }
+                return sum;
+            }
+        });
+        final Vec3 v = new Vec3();
+        report("rotate: Quat.transform", new Body() {
+            @Override
+            public double run() {
+                double sum = 0;
+                for (int i = 0; i < COUNT; i++) {
+                    quats[i].transform(v.set(vectors[3 * i], vectors[3 * i + 1], vectors[3 * i + 2]));
+                    sum += v.x;
+                }
+                return sum;
+            }
+        });
+
+        final Quat interpolated = new Quat();
+        report("slerp: Quat.slerp", new Body() {
+            @Override
+            public double run() {
+                double sum = 0;
+                for (int i = 1; i < COUNT; i++) {
+                    interpolated.set(quats[i - 1]).slerp(quats[i], 0.3);
+                    sum += interpolated.w;
+                }
+                return sum;
+            }
+        });
+    }
+
+    private interface Body {
+        double run();
+    }
+
+    // 最も速い回の1演算あたりの時間を出力する
+    private static void report(String name, Body body) {
+        double check = 0;
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            check += body.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            check += body.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-50s %8.1f ns/op (check %.3f)%n", name, (double) best / COUNT, check);
+    }
+}
@@ -0,0 +1,81 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.math;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuatTest {
+    private static final double EPS = 1e-9;
+
+    private static void assertVec(double x, double y, double z, Vec3 v) {
+        assertEquals(x, v.x, EPS);
+        assertEquals(y, v.y, EPS);
+        assertEquals(z, v.z, EPS);
+    }
+
+    private static void assertSameRotation(Quat expected, Quat actual) {
+        assertEquals(0, expected.angleTo(actual), 1e-6);
+    }
+
+    @Test
+    public void transformRotatesAboutAxis() {
+        // z軸周りに90度回すと、xはyになる
+        Quat q = new Quat().setAxisAngle(0, 0, 1, Math.PI / 2);
+        assertVec(0, 1, 0, q.transform(new Vec3(1, 0, 0)));
+        assertVec(-1, 0, 0, q.transform(new Vec3(0, 1, 0)));
+        assertVec(0, 0, 1, q.transform(new Vec3(0, 0, 1)));
+    }
+
+    @Test
+    public void inverseTransformUndoesTransform() {
+        Quat q = new Quat().setAxisAngle(1, 2, 3, 0.7);
+        Vec3 v = q.transform(new Vec3(0.3, -1.2, 2.5));
+        assertVec(0.3, -1.2, 2.5, q.inverseTransform(v));
+    }
+
+    @Test
+    public void mulAppliesRightOperandFirst() {
+        Quat a = new Quat().setAxisAngle(0, 0, 1, Math.PI / 2);
+        Quat b = new Quat().setAxisAngle(1, 0, 0, Math.PI / 2);
+        Vec3 expected = a.transform(b.transform(new Vec3(0, 1, 0)));
+        Vec3 actual = new Quat().set(a).mul(b).transform(new Vec3(0, 1, 0));
+        assertVec(expected.x, expected.y, expected.z, actual);
+        // premulは左から掛ける
+        assertSameRotation(new Quat().set(a).mul(b), new Quat().set(b).premul(a));
+    }
+
+    @Test
+    public void mulWithConjugateIsIdentity() {
+        Quat q = new Quat().setAxisAngle(1, -1, 2, 1.3);
+        assertSameRotation(new Quat(), new Quat().set(q).mul(new Quat().set(q).conjugate()));
+    }
+
+    @Test
+    public void slerpInterpolatesAngle() {
+        Quat from = new Quat();
+        Quat to = new Quat().setAxisAngle(0, 1, 0, Math.PI / 2);
+        assertSameRotation(from, new Quat().set(from).slerp(to, 0));
+        assertSameRotation(to, new Quat().set(from).slerp(to, 1));
+        assertSameRotation(new Quat().setAxisAngle(0, 1, 0, Math.PI / 4), new Quat().set(from).slerp(to, 0.5));
+    }
+
+    @Test
+    public void slerpTakesShortestPath() {
+        // -toはtoと同じ回転なので、途中の回転も同じになる
+        Quat from = new Quat();
+        Quat to = new Quat().setAxisAngle(0, 0, 1, 1.0);
+        Quat negated = new Quat(-to.x, -to.y, -to.z, -to.w);
+        Quat half = new Quat().set(from).slerp(negated, 0.5);
+        assertSameRotation(new Quat().setAxisAngle(0, 0, 1, 0.5), half);
+        assertEquals(1, Math.sqrt(half.dot(half)), EPS);
+    }
+
+    @Test
+    public void slerpOfNearlyEqualQuaternionsIsNormalized() {
+        Quat from = new Quat().setAxisAngle(1, 0, 0, 0.3);
+        Quat to = new Quat().setAxisAngle(1, 0, 0, 0.3 + 1e-8);
+        Quat q = new Quat().set(from).slerp(to, 0.5);
+        assertEquals(1, Math.sqrt(q.dot(q)), EPS);
+        assertSameRotation(from, q);
+    }
+}
@@ -0,0 +1,177 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.planner;
+
+import java.util.Random;
+
+import jp.jaxa.iss.kibo.rpc.defaultapk.field.KeepZones;
+
+/**
+ * BoxSetの問い合わせと、以前の判定(YourService.isInKOZ、箱ごとのAabb)の速さを比べるJVM上のベンチマーク
+ * JMHは使えないので、ウォームアップの後に何回か計測して最も速い値を出す
+ * 実行: java -cp <テストのクラスパス> jp.jaxa.iss.kibo.rpc.defaultapk.planner.BoxSetBenchmark
+ */
+public final class BoxSetBenchmark {
+    private static final int NUM_POINTS = 4096;
+    private static final int WARM_UP_ROUNDS = 20;
+    private static final int ROUNDS = 20;
+
+    private BoxSetBenchmark() {}
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        double[] points = new double[3 * NUM_POINTS];
+        for (int k = 0; k < NUM_POINTS; k++) {
+            points[3 * k] = 10.2 + 1.4 * random.nextDouble();
+            points[3 * k + 1] = -10.3 + 4.3 * random.nextDouble();
+            points[3 * k + 2] = 4.2 + 1.4 * random.nextDouble();
+        }
+        final double[][][] corners = toCornerPairs(KeepZones.KOZ);
+        final BoxSet koz = new BoxSet(KeepZones.KOZ, 0);
+        final double[] ends = points;
+        final boolean[] out = new boolean[NUM_POINTS];
+        final Aabb[] kozBoxes = new Aabb[KeepZones.KOZ.length];
+        for (int i = 0; i < kozBoxes.length; i++) {
+            kozBoxes[i] = new Aabb(KeepZones.KOZ[i]);
+        }
+
+        report("point: isInKOZ (old)", new Body() {
+            @Override
+            public long run() {
+                long hits = 0;
+                for (int k = 0; k < NUM_POINTS; k++) {
+                    for (double[][] zone : corners) {
+                        if (isInKozBaseline(ends[3 * k], ends[3 * k + 2], zone)) {
+                            ++hits;
+                            break;
+                        }
+                    }
+                }
+                return hits;
+            }
+        });
+        report("point: BoxSet.containsStrictly (batch)", new Body() {
+            @Override
+            public long run() {
+                return koz.containsStrictly(ends, NUM_POINTS, out);
+            }
+        });
+
+        final double ox = 10.9, oy = -9.8, oz = 4.8;
+        report("segment: Aabb list (old)", new Body() {
+            @Override
+            public long run() {
+                long hits = 0;
+                for (int k = 0; k < NUM_POINTS; k++) {
+                    for (Aabb box : kozBoxes) {
+                        if (box.intersectsSegment(ox, oy, oz, ends[3 * k], ends[3 * k + 1], ends[3 * k + 2])) {
+                            ++hits;
+                            break;
+                        }
+                    }
+                }
+                return hits;
+            }
+        });
+        report("segment: BoxSet.intersectsSegment", new Body() {
+            @Override
+            public long run() {
+                long hits = 0;
+                for (int k = 0; k < NUM_POINTS; k++) {
+                    if (koz.intersectsSegment(ox, oy, oz, ends[3 * k], ends[3 * k + 1], ends[3 * k + 2])) {
+                        ++hits;
+                    }
+                }
+                return hits;
+            }
+        });
+        report("segment: BoxSet.intersectsSegments (batch)", new Body() {
+            @Override
+            public long run() {
+                koz.intersectsSegments(ox, oy, oz, ends, 0, NUM_POINTS, out);
+                long hits = 0;
+                for (int k = 0; k < NUM_POINTS; k++) {
+                    if (out[k]) {
+                        ++hits;
+                    }
+                }
+                return hits;
+            }
+        });
+    }
+
+    private interface Body {
+        long run();
+    }
+
+    // 最も速い回の1問い合わせあたりの時間を出力する
+    private static void report(String name, Body body) {
+        long check = 0;
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            check += body.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            check += body.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-45s %8.1f ns/query (check %d)%n", name, (double) best / NUM_POINTS, check);
+    }
+
+    // 以前のYourService.isInKOZ(xとzだけを見るので、判定の結果はBoxSetと一致しない)
+    private static boolean isInKozBaseline(double x, double z, double[][] koz) {
+        double largeX = Math.max(koz[0][0], koz[1][0]);
+        double smallX = Math.min(koz[0][0], koz[1][0]);
+        double largeZ = Math.max(koz[0][2], koz[1][2]);
+        double smallZ = Math.min(koz[0][2], koz[1][2]);
+        return smallX <= x && x <= largeX && smallZ <= z && z <= largeZ;
+    }
+
+    private static double[][][] toCornerPairs(double[][] boxes) {
+        double[][][] corners = new double[boxes.length][][];
+        for (int i = 0; i < boxes.length; i++) {
+            corners[i] = new double[][]{
+                    {boxes[i][0], boxes[i][1], boxes[i][2]},
+                    {boxes[i][3], boxes[i][4], boxes[i][5]}};
+        }
+        return corners;
+    }
+
+    // 以前のPathPlannerが使っていたAabb(箱ごとのオブジェクト. 判定ごとに作業用の配列を作る)
+    private static final class Aabb {
+        final double xMin, yMin, zMin;
+        final double xMax, yMax, zMax;
+
+        Aabb(double[] box) {
+            xMin = box[0];
+            yMin = box[1];
+            zMin = box[2];
+            xMax = box[3];
+            yMax = box[4];
+            zMax = box[5];
+        }
+
+        boolean intersectsSegment(double ax, double ay, double az, double bx, double by, double bz) {
+            double[] range = {0, 1};
+            return clip(ax, bx - ax, xMin, xMax, range)
+                    && clip(ay, by - ay, yMin, yMax, range)
+                    && clip(az, bz - az, zMin, zMax, range)
+                    && range[0] < range[1];
+        }
+
+        private static boolean clip(double start, double delta, double min, double max, double[] range) {
+            if (delta == 0) {
+                return min < start && start < max;
+            }
+            double t0 = (min - start) / delta;
+            double t1 = (max - start) / delta;
+            if (t0 > t1) {
+                double tmp = t0;
+                t0 = t1;
+                t1 = tmp;
+            }
+            range[0] = Math.max(range[0], t0);
+            range[1] = Math.min(range[1], t1);
+            return range[0] < range[1];
+        }
+    }
+}
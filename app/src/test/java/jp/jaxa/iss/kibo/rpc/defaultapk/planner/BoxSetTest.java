@@ -0,0 +1,86 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.planner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BoxSetTest {
+    // 原点の周りの1辺2mの箱と、x方向に離れた1辺1mの箱
+    private static final double[][] BOXES = {
+            {-1, -1, -1, 1, 1, 1},
+            {3, 0, 0, 4, 1, 1},
+    };
+
+    // 原点(-2, 0, 0)から各終点への線分
+    private static final double[] ENDS = {
+            2, 0, 0,          // 1つ目の箱を貫く
+            -2, 2, 0,         // どの箱も通らない
+            3.5, 0.5, 0.5,    // 1つ目の箱を貫いて2つ目の箱の中で終わる
+            -2, 1, 1,         // 1つ目の箱の面の延長上を通るだけ
+            -1.5, 0, 0,       // 箱の手前で終わる
+    };
+
+    @Test
+    public void intersectsSegmentsMatchesSingleQueries() {
+        BoxSet boxSet = new BoxSet(BOXES, 0);
+        int count = ENDS.length / 3;
+        boolean[] out = new boolean[count];
+        boxSet.intersectsSegments(-2, 0, 0, ENDS, 0, count, out);
+
+        assertArrayEquals(new boolean[]{true, false, true, false, false}, out);
+        for (int k = 0; k < count; k++) {
+            assertEquals(boxSet.intersectsSegment(-2, 0, 0, ENDS[3 * k], ENDS[3 * k + 1], ENDS[3 * k + 2]), out[k]);
+        }
+    }
+
+    @Test
+    public void intersectsSegmentsWritesOnlyRequestedRange() {
+        BoxSet boxSet = new BoxSet(BOXES, 0);
+        boolean[] out = {true, true, true, true, true};
+        boxSet.intersectsSegments(-2, 0, 0, ENDS, 1, 3, out);
+        assertArrayEquals(new boolean[]{true, false, true, true, true}, out);
+    }
+
+    @Test
+    public void segmentTouchingFaceDoesNotIntersect() {
+        BoxSet boxSet = new BoxSet(BOXES, 0);
+        // y = 1 の面に沿って動く
+        assertFalse(boxSet.intersectsSegment(-2, 1, 0, 2, 1, 0));
+        // 広げると面の上も内部になる
+        assertTrue(new BoxSet(BOXES, 0.1).intersectsSegment(-2, 1, 0, 2, 1, 0));
+    }
+
+    @Test
+    public void sweptSphereUsesRadius() {
+        BoxSet boxSet = new BoxSet(BOXES, 0);
+        assertFalse(boxSet.intersectsSweptSphere(-2, 1.2, 0, 2, 1.2, 0, 0.1));
+        assertTrue(boxSet.intersectsSweptSphere(-2, 1.2, 0, 2, 1.2, 0, 0.3));
+    }
+
+    @Test
+    public void containsSegmentsRequiresBothEndsInOneBox() {
+        BoxSet boxSet = new BoxSet(BOXES, 0);
+        double[] ends = {0.5, 0.5, 0.5, 3.5, 0.5, 0.5};
+        boolean[] out = new boolean[2];
+        boxSet.containsSegments(0, 0, 0, ends, 0, 2, out);
+        assertArrayEquals(new boolean[]{true, false}, out);
+        assertTrue(boxSet.containsSegment(0, 0, 0, 0.5, 0.5, 0.5));
+        assertFalse(boxSet.containsSegment(0, 0, 0, 3.5, 0.5, 0.5));
+    }
+
+    @Test
+    public void pointQueries() {
+        BoxSet boxSet = new BoxSet(BOXES, 0);
+        assertEquals(0, boxSet.indexOf(1, 1, 1));
+        assertEquals(1, boxSet.indexOf(3.5, 0.5, 0.5));
+        assertEquals(-1, boxSet.indexOf(2, 0, 0));
+        assertFalse(boxSet.containsStrictly(1, 0, 0));
+        assertTrue(boxSet.containsStrictly(0.9, 0, 0));
+        assertEquals(0, boxSet.clearance(0, 0, 0), 1e-12);
+        assertEquals(1, boxSet.clearance(2, 0, 0), 1e-12);
+        assertEquals(Math.sqrt(2), boxSet.clearance(2, 2, 0), 1e-12);
+    }
+}
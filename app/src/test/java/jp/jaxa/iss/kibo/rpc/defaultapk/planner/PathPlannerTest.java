@@ -0,0 +1,99 @@
+package jp.jaxa.iss.kibo.rpc.defaultapk.planner;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PathPlannerTest {
+    // スタート地点, 各エリアの前, 宇宙飛行士の前
+    private static final double[][] POSES = {
+            {10.267, -9.797, 4.27},
+            {10.9922, -9.9373, 5.2776},
+            {10.8828, -8.7924, 4.5267},
+            {10.8828, -7.8424, 4.579},
+            {10.672, -6.9335, 4.9514},
+            {11.143, -6.7607, 4.9654},
+    };
+
+    private static PathPlanner planner;
+
+    @BeforeClass
+    public static void setUp() {
+        planner = new PathPlanner(0.2, 0.05);
+    }
+
+    @Test
+    public void noRouteHopIsShorterThanMergeDistance() {
+        for (double[] from : POSES) {
+            for (double[] to : POSES) {
+                if (from == to) {
+                    continue;
+                }
+                double[] path = planner.plan(from[0], from[1], from[2], to[0], to[1], to[2]);
+                assertNotNull(path);
+                double x = from[0], y = from[1], z = from[2];
+                for (int i = 0; i < path.length; i += 3) {
+                    double dx = path[i] - x, dy = path[i + 1] - y, dz = path[i + 2] - z;
+                    assertTrue("short hop to (" + path[i] + ", " + path[i + 1] + ", " + path[i + 2] + ")",
+                            Math.sqrt(dx * dx + dy * dy + dz * dz) >= PathPlanner.MERGE_DISTANCE);
+                    x = path[i];
+                    y = path[i + 1];
+                    z = path[i + 2];
+                }
+            }
+        }
+    }
+
+    @Test
+    public void routeEndsAtGoalAndEverySegmentIsFree() {
+        for (double[] from : POSES) {
+            for (double[] to : POSES) {
+                if (from == to) {
+                    continue;
+                }
+                double[] path = planner.plan(from[0], from[1], from[2], to[0], to[1], to[2]);
+                assertNotNull(path);
+                assertEquals(to[0], path[path.length - 3], 0);
+                assertEquals(to[1], path[path.length - 2], 0);
+                assertEquals(to[2], path[path.length - 1], 0);
+                double x = from[0], y = from[1], z = from[2];
+                for (int i = 0; i < path.length; i += 3) {
+                    assertTrue(planner.isSegmentFree(x, y, z, path[i], path[i + 1], path[i + 2]));
+                    x = path[i];
+                    y = path[i + 1];
+                    z = path[i + 2];
+                }
+            }
+        }
+    }
+
+    @Test
+    public void visibleGoalIsReachedDirectly() {
+        // エリア4の前から宇宙飛行士の前へは遮るものがない
+        double[] from = POSES[4];
+        double[] to = POSES[5];
+        assertTrue(planner.isSegmentFree(from[0], from[1], from[2], to[0], to[1], to[2]));
+        assertArrayEquals(to, planner.plan(from[0], from[1], from[2], to[0], to[1], to[2]), 0);
+    }
+
+    @Test
+    public void goalBehindKozNeedsViaPoint() {
+        // スタート地点からエリア1の前へはKOZ1を迂回する
+        double[] from = POSES[0];
+        double[] to = POSES[1];
+        assertFalse(planner.isSegmentFree(from[0], from[1], from[2], to[0], to[1], to[2]));
+        assertTrue(planner.plan(from[0], from[1], from[2], to[0], to[1], to[2]).length > 3);
+    }
+
+    @Test
+    public void goalOutsideKizHasNoRoute() {
+        double[] from = POSES[0];
+        assertNull(planner.plan(from[0], from[1], from[2], 0, 0, 0));
+    }
+}